@@ -0,0 +1,587 @@
+package disk_store;
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An ordered index implemented as an in-memory B+tree.  Duplicate
+ * search key values are allowed, but not duplicate index table
+ * entries.
+ *
+ * Entries are key/blockNum pairs, ordered by key and then by blockNum,
+ * and each has a count of the times it was inserted.  Leaves hold the
+ * entries in parallel arrays and are linked in order, so the entries
+ * for a key, or for a range of keys, are read by finding the first
+ * one and following the links.  An inner node with n separators has
+ * n+1 children; child i holds the entries that are at least separator
+ * i-1 and less than separator i.
+ *
+ * Every node except the root has between order/2 and order entries
+ * (separators, for an inner node), so insert, delete and lookup take
+ * O(log n) time.
+ *
+ */
+
+public class BTreeIndex implements OrderedIndex {
+	
+	private static final int defaultOrder = 64;
+	
+	// a node; keys and blockNums are the entries of a leaf, or the
+	// separators of an inner node.  The arrays have room for one extra
+	// entry, which is there only until the node is split.
+	private static abstract class Node {
+		int n;
+		int[] keys;
+		long[] blockNums;
+	
+		Node(int order) {
+			keys = new int[order + 1];
+			blockNums = new long[order + 1];
+		}
+	}
+	
+	private static class Leaf extends Node {
+		int[] counts;
+		Leaf prev, next;
+	
+		Leaf(int order) {
+			super(order);
+			counts = new int[order + 1];
+		}
+	}
+	
+	private static class Inner extends Node {
+		Node[] children;
+	
+		Inner(int order) {
+			super(order);
+			children = new Node[order + 2];
+		}
+	}
+	
+	private int order;		// maximum entries per node
+	private int minFill;	// minimum entries per node other than the root
+	private Node root;
+	private int size;		// number of entries, counting duplicates
+	private int distinct;	// number of entries, not counting duplicates
+	
+	// separator and new node produced by a split, for the parent
+	private int splitKey;
+	private long splitBlockNum;
+	private Node splitNode;
+	
+	/**
+	 * Create an new ordered index.
+	 */
+	public BTreeIndex() {
+		this(defaultOrder);
+	}
+	
+	/**
+	 * Create an new ordered index whose nodes hold up to order entries.
+	 * @param order maximum entries per node, at least 3
+	 */
+	public BTreeIndex(int order) {
+		if (order < 3) {
+			throw new IllegalArgumentException("B+tree order must be at least 3");
+		}
+		this.order = order;
+		this.minFill = order / 2;
+		root = new Leaf(order);
+	}
+	
+	@Override
+	public List<Long> lookup(int key) {
+		ArrayList<Long> blockNoList = new ArrayList<>();
+		Leaf leaf = findLeaf(key, Long.MIN_VALUE);
+		int i = lowerBound(leaf, key, Long.MIN_VALUE);
+		while (leaf != null) {
+			for (; i < leaf.n; i++) {
+				if (leaf.keys[i] != key) {
+					return blockNoList;
+				}
+				blockNoList.add(leaf.blockNums[i]);
+			}
+			leaf = leaf.next;
+			i = 0;
+		}
+		return blockNoList;
+	}
+	
+	@Override
+	public List<Long> lookupRange(int lo, int hi) {
+		ArrayList<Long> blockNoList = new ArrayList<>();
+		if (lo > hi) {
+			return blockNoList;
+		}
+		Leaf leaf = findLeaf(lo, Long.MIN_VALUE);
+		int i = lowerBound(leaf, lo, Long.MIN_VALUE);
+		while (leaf != null) {
+			for (; i < leaf.n; i++) {
+				if (leaf.keys[i] > hi) {
+					return blockNoList;
+				}
+				blockNoList.add(leaf.blockNums[i]);
+			}
+			leaf = leaf.next;
+			i = 0;
+		}
+		return blockNoList;
+	}
+	
+	@Override
+	public Iterator<Long> iterator(boolean descending) {
+		return new LeafIterator(descending);
+	}
+	
+	// An iterator over the entries of the leaves, following the links
+	// between them forward or backward
+	private class LeafIterator implements Iterator<Long> {
+		boolean descending;
+		Leaf leaf;
+		int i; // next entry of leaf
+	
+		LeafIterator(boolean descending) {
+			this.descending = descending;
+			if (descending) {
+				leaf = findLeaf(Integer.MAX_VALUE, Long.MAX_VALUE);
+				i = leaf.n - 1;
+			} else {
+				leaf = findLeaf(Integer.MIN_VALUE, Long.MIN_VALUE);
+				i = 0;
+			}
+		}
+	
+		public boolean hasNext() {
+			// skip to a leaf with entries left
+			while (leaf != null && (i < 0 || i >= leaf.n)) {
+				leaf = descending ? leaf.prev : leaf.next;
+				if (leaf != null) {
+					i = descending ? leaf.n - 1 : 0;
+				}
+			}
+			return leaf != null;
+		}
+	
+		public Long next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			long blockNum = leaf.blockNums[i];
+			i += descending ? -1 : 1;
+			return blockNum;
+		}
+	}
+	
+	@Override
+	public void insert(int key, long blockNum) {
+		splitNode = null;
+		insert(root, key, blockNum);
+		if (splitNode != null) {
+			// the root was split; grow the tree by one level
+			Inner newRoot = new Inner(order);
+			newRoot.keys[0] = splitKey;
+			newRoot.blockNums[0] = splitBlockNum;
+			newRoot.children[0] = root;
+			newRoot.children[1] = splitNode;
+			newRoot.n = 1;
+			root = newRoot;
+			splitNode = null;
+		}
+	}
+	
+	@Override
+	public void delete(int key, long blockNum) {
+		if (delete(root, key, blockNum) && root instanceof Inner && root.n == 0) {
+			// the root has a single child; shrink the tree by one level
+			root = ((Inner) root).children[0];
+		}
+	}
+	
+	/**
+	 * Return the number of entries in the index
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+	
+	// return the number of distinct key/blockNum pairs in the index
+	int numEntries() {
+		return distinct;
+	}
+	
+	// copy the entries of the index, in order, to the given arrays,
+	// which must have room for numEntries() entries
+	void entries(int[] keys, long[] blockNums, int[] counts) {
+		int j = 0;
+		for (Leaf leaf = findLeaf(Integer.MIN_VALUE, Long.MIN_VALUE); leaf != null; leaf = leaf.next) {
+			System.arraycopy(leaf.keys, 0, keys, j, leaf.n);
+			System.arraycopy(leaf.blockNums, 0, blockNums, j, leaf.n);
+			System.arraycopy(leaf.counts, 0, counts, j, leaf.n);
+			j += leaf.n;
+		}
+	}
+	
+	/**
+	 * Build the index from the first n entries of the given arrays,
+	 * which must be in order by key and then by blockNum, with no pair
+	 * repeated; counts[i] is the number of times pair i was inserted.
+	 * The tree is built bottom up, a level at a time, which is much
+	 * faster than inserting the entries one by one.  The index must
+	 * be empty.
+	 */
+	public void load(int[] keys, long[] blockNums, int[] counts, int n) {
+		if (size != 0) {
+			throw new IllegalStateException("can only load an empty index");
+		}
+		if (n == 0) {
+			return;
+		}
+		
+		// the leaves, as full as possible but no fuller than order
+		int numNodes = (n + order - 1) / order;
+		Node[] level = new Node[numNodes];
+		Leaf prev = null;
+		for (int k = 0, start = 0; k < numNodes; k++) {
+			int end = (int) ((long) n * (k + 1) / numNodes);
+			Leaf leaf = new Leaf(order);
+			leaf.n = end - start;
+			System.arraycopy(keys, start, leaf.keys, 0, leaf.n);
+			System.arraycopy(blockNums, start, leaf.blockNums, 0, leaf.n);
+			System.arraycopy(counts, start, leaf.counts, 0, leaf.n);
+			for (int i = start; i < end; i++) {
+				size += counts[i];
+			}
+			leaf.prev = prev;
+			if (prev != null) {
+				prev.next = leaf;
+			}
+			prev = leaf;
+			level[k] = leaf;
+			start = end;
+		}
+		distinct = n;
+		
+		// the first entry below each node of the current level, which
+		// separates it from the node before it
+		int[] firstKeys = new int[numNodes];
+		long[] firstBlockNums = new long[numNodes];
+		for (int k = 0; k < numNodes; k++) {
+			firstKeys[k] = level[k].keys[0];
+			firstBlockNums[k] = level[k].blockNums[0];
+		}
+		
+		// inner levels, each with up to order+1 children per node
+		while (numNodes > 1) {
+			int numParents = (numNodes + order) / (order + 1);
+			Node[] parents = new Node[numParents];
+			for (int k = 0, start = 0; k < numParents; k++) {
+				int end = (int) ((long) numNodes * (k + 1) / numParents);
+				Inner inner = new Inner(order);
+				inner.n = end - start - 1;
+				System.arraycopy(level, start, inner.children, 0, end - start);
+				System.arraycopy(firstKeys, start + 1, inner.keys, 0, inner.n);
+				System.arraycopy(firstBlockNums, start + 1, inner.blockNums, 0, inner.n);
+				firstKeys[k] = firstKeys[start];
+				firstBlockNums[k] = firstBlockNums[start];
+				parents[k] = inner;
+				start = end;
+			}
+			level = parents;
+			numNodes = numParents;
+		}
+		root = level[0];
+	}
+	
+	// insert an entry below the given node; if the node splits, set
+	// splitNode to the new right node and splitKey/splitBlockNum to the
+	// separator between them
+	private void insert(Node node, int key, long blockNum) {
+		if (node instanceof Leaf) {
+			Leaf leaf = (Leaf) node;
+			int i = lowerBound(leaf, key, blockNum);
+			if (i < leaf.n && leaf.keys[i] == key && leaf.blockNums[i] == blockNum) {
+				leaf.counts[i]++;
+				size++;
+				return;
+			}
+			insertAt(leaf, i, key, blockNum);
+			System.arraycopy(leaf.counts, i, leaf.counts, i + 1, leaf.n - 1 - i);
+			leaf.counts[i] = 1;
+			size++;
+			distinct++;
+			if (leaf.n > order) {
+				splitLeaf(leaf);
+			}
+			return;
+		}
+	
+		Inner inner = (Inner) node;
+		int c = childIndex(inner, key, blockNum);
+		insert(inner.children[c], key, blockNum);
+		if (splitNode == null) {
+			return;
+		}
+		insertAt(inner, c, splitKey, splitBlockNum);
+		System.arraycopy(inner.children, c + 1, inner.children, c + 2, inner.n - 1 - c);
+		inner.children[c + 1] = splitNode;
+		splitNode = null;
+		if (inner.n > order) {
+			splitInner(inner);
+		}
+	}
+	
+	// move the upper half of a leaf to a new leaf
+	private void splitLeaf(Leaf leaf) {
+		Leaf right = new Leaf(order);
+		int mid = leaf.n / 2;
+		right.n = leaf.n - mid;
+		System.arraycopy(leaf.keys, mid, right.keys, 0, right.n);
+		System.arraycopy(leaf.blockNums, mid, right.blockNums, 0, right.n);
+		System.arraycopy(leaf.counts, mid, right.counts, 0, right.n);
+		leaf.n = mid;
+	
+		right.next = leaf.next;
+		if (right.next != null) {
+			right.next.prev = right;
+		}
+		right.prev = leaf;
+		leaf.next = right;
+	
+		splitKey = right.keys[0];
+		splitBlockNum = right.blockNums[0];
+		splitNode = right;
+	}
+	
+	// move the upper half of an inner node to a new node; the middle
+	// separator moves up to the parent
+	private void splitInner(Inner inner) {
+		Inner right = new Inner(order);
+		int mid = inner.n / 2;
+		right.n = inner.n - mid - 1;
+		System.arraycopy(inner.keys, mid + 1, right.keys, 0, right.n);
+		System.arraycopy(inner.blockNums, mid + 1, right.blockNums, 0, right.n);
+		System.arraycopy(inner.children, mid + 1, right.children, 0, right.n + 1);
+		for (int i = mid + 1; i <= inner.n; i++) {
+			inner.children[i] = null;
+		}
+		splitKey = inner.keys[mid];
+		splitBlockNum = inner.blockNums[mid];
+		splitNode = right;
+		inner.n = mid;
+	}
+	
+	// delete an entry below the given node; return true if the node
+	// now has fewer than minFill entries
+	private boolean delete(Node node, int key, long blockNum) {
+		if (node instanceof Leaf) {
+			Leaf leaf = (Leaf) node;
+			int i = lowerBound(leaf, key, blockNum);
+			if (i == leaf.n || leaf.keys[i] != key || leaf.blockNums[i] != blockNum) {
+				return false;
+			}
+			size--;
+			if (--leaf.counts[i] > 0) {
+				return false;
+			}
+			System.arraycopy(leaf.counts, i + 1, leaf.counts, i, leaf.n - 1 - i);
+			removeAt(leaf, i);
+			distinct--;
+			return leaf.n < minFill;
+		}
+	
+		Inner inner = (Inner) node;
+		int c = childIndex(inner, key, blockNum);
+		if (delete(inner.children[c], key, blockNum)) {
+			rebalance(inner, c);
+			return inner.n < minFill;
+		}
+		return false;
+	}
+	
+	// child c of the given node has too few entries; borrow one from
+	// a sibling, or merge it with a sibling
+	private void rebalance(Inner parent, int c) {
+		Node left = (c > 0) ? parent.children[c - 1] : null;
+		Node right = (c < parent.n) ? parent.children[c + 1] : null;
+	
+		if (left != null && left.n > minFill) {
+			borrowFromLeft(parent, c);
+		} else if (right != null && right.n > minFill) {
+			borrowFromRight(parent, c);
+		} else if (left != null) {
+			merge(parent, c - 1);
+		} else if (right != null) {
+			merge(parent, c);
+		}
+	}
+	
+	// move the last entry of child c-1 to the front of child c
+	private void borrowFromLeft(Inner parent, int c) {
+		Node child = parent.children[c];
+		Node left = parent.children[c - 1];
+		if (child instanceof Leaf) {
+			Leaf l = (Leaf) left;
+			Leaf ch = (Leaf) child;
+			int last = l.n - 1;
+			insertAt(ch, 0, l.keys[last], l.blockNums[last]);
+			System.arraycopy(ch.counts, 0, ch.counts, 1, ch.n - 1);
+			ch.counts[0] = l.counts[last];
+			l.n--;
+			parent.keys[c - 1] = ch.keys[0];
+			parent.blockNums[c - 1] = ch.blockNums[0];
+		} else {
+			Inner l = (Inner) left;
+			Inner ch = (Inner) child;
+			insertAt(ch, 0, parent.keys[c - 1], parent.blockNums[c - 1]);
+			System.arraycopy(ch.children, 0, ch.children, 1, ch.n);
+			ch.children[0] = l.children[l.n];
+			l.children[l.n] = null;
+			parent.keys[c - 1] = l.keys[l.n - 1];
+			parent.blockNums[c - 1] = l.blockNums[l.n - 1];
+			l.n--;
+		}
+	}
+	
+	// move the first entry of child c+1 to the end of child c
+	private void borrowFromRight(Inner parent, int c) {
+		Node child = parent.children[c];
+		Node right = parent.children[c + 1];
+		if (child instanceof Leaf) {
+			Leaf r = (Leaf) right;
+			Leaf ch = (Leaf) child;
+			ch.keys[ch.n] = r.keys[0];
+			ch.blockNums[ch.n] = r.blockNums[0];
+			ch.counts[ch.n] = r.counts[0];
+			ch.n++;
+			System.arraycopy(r.counts, 1, r.counts, 0, r.n - 1);
+			removeAt(r, 0);
+			parent.keys[c] = r.keys[0];
+			parent.blockNums[c] = r.blockNums[0];
+		} else {
+			Inner r = (Inner) right;
+			Inner ch = (Inner) child;
+			ch.keys[ch.n] = parent.keys[c];
+			ch.blockNums[ch.n] = parent.blockNums[c];
+			ch.children[ch.n + 1] = r.children[0];
+			ch.n++;
+			parent.keys[c] = r.keys[0];
+			parent.blockNums[c] = r.blockNums[0];
+			System.arraycopy(r.children, 1, r.children, 0, r.n);
+			r.children[r.n] = null;
+			removeAt(r, 0);
+		}
+	}
+	
+	// merge child c+1 into child c, and remove separator c of the parent
+	private void merge(Inner parent, int c) {
+		Node left = parent.children[c];
+		Node right = parent.children[c + 1];
+		if (left instanceof Leaf) {
+			Leaf l = (Leaf) left;
+			Leaf r = (Leaf) right;
+			System.arraycopy(r.keys, 0, l.keys, l.n, r.n);
+			System.arraycopy(r.blockNums, 0, l.blockNums, l.n, r.n);
+			System.arraycopy(r.counts, 0, l.counts, l.n, r.n);
+			l.n += r.n;
+			l.next = r.next;
+			if (l.next != null) {
+				l.next.prev = l;
+			}
+		} else {
+			Inner l = (Inner) left;
+			Inner r = (Inner) right;
+			l.keys[l.n] = parent.keys[c];
+			l.blockNums[l.n] = parent.blockNums[c];
+			System.arraycopy(r.keys, 0, l.keys, l.n + 1, r.n);
+			System.arraycopy(r.blockNums, 0, l.blockNums, l.n + 1, r.n);
+			System.arraycopy(r.children, 0, l.children, l.n + 1, r.n + 1);
+			l.n += r.n + 1;
+		}
+		System.arraycopy(parent.children, c + 2, parent.children, c + 1, parent.n - c - 1);
+		parent.children[parent.n] = null;
+		removeAt(parent, c);
+	}
+	
+	// insert an entry at position i of a node, shifting later entries
+	private static void insertAt(Node node, int i, int key, long blockNum) {
+		System.arraycopy(node.keys, i, node.keys, i + 1, node.n - i);
+		System.arraycopy(node.blockNums, i, node.blockNums, i + 1, node.n - i);
+		node.keys[i] = key;
+		node.blockNums[i] = blockNum;
+		node.n++;
+	}
+	
+	// remove the entry at position i of a node, shifting later entries
+	private static void removeAt(Node node, int i) {
+		System.arraycopy(node.keys, i + 1, node.keys, i, node.n - 1 - i);
+		System.arraycopy(node.blockNums, i + 1, node.blockNums, i, node.n - 1 - i);
+		node.n--;
+	}
+	
+	// return the leaf that holds the given entry, if it is present
+	private Leaf findLeaf(int key, long blockNum) {
+		Node node = root;
+		while (node instanceof Inner) {
+			node = ((Inner) node).children[childIndex((Inner) node, key, blockNum)];
+		}
+		return (Leaf) node;
+	}
+	
+	// return the child of an inner node that holds the given entry,
+	// which is the number of separators that are not above it
+	private static int childIndex(Inner inner, int key, long blockNum) {
+		int lo = 0, hi = inner.n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(inner.keys[mid], inner.blockNums[mid], key, blockNum) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	// return the position of the first entry of a node that is not
+	// below the given entry
+	private static int lowerBound(Node node, int key, long blockNum) {
+		int lo = 0, hi = node.n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(node.keys[mid], node.blockNums[mid], key, blockNum) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	// compare two entries by key, then by block number
+	private static int compare(int key1, long blockNum1, int key2, long blockNum2) {
+		if (key1 != key2) {
+			return Integer.compare(key1, key2);
+		}
+		return Long.compare(blockNum1, blockNum2);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		Leaf leaf = findLeaf(Integer.MIN_VALUE, Long.MIN_VALUE);
+		for (; leaf != null; leaf = leaf.next) {
+			for (int i = 0; i < leaf.n; i++) {
+				sb.append("key: " + leaf.keys[i] + "\n");
+				sb.append("blockNo: " + leaf.blockNums[i] + "\n");
+				sb.append("count: " + leaf.counts[i] + "\n");
+				sb.append("\n");
+			}
+		}
+		return sb.toString();
+	}
+}
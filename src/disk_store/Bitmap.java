@@ -1,17 +1,25 @@
 package disk_store;
 
+import java.nio.ByteBuffer;
+
 /**
- * A bitmap, implemented as a byte array.
+ * A bitmap, implemented as a byte array.  The bytes can also be those
+ * of a ByteBuffer, such as a view of a block in a memory-mapped file.
  * 
  * Note that java bytes are signed, so values range
  * from -128 to 127.  A byte of all 1's is -0x01.
- * 
+ *
+ * Bit 0 is the leftmost (high-order) bit of byte 0.  Because of this,
+ * 8 bytes read as a big-endian long hold 64 consecutive bits with the
+ * first one in the high-order position, and the searching and counting
+ * methods work on a long word at a time.
+ *
  * @author Glenn
  *
  */
 
 public class Bitmap {
-	private byte[] bytes;
+	private ByteBuffer bytes;
 	private int numBytes;
 	private final byte ONES = -0x01;	// 8 bits of 1s
 	
@@ -19,6 +27,12 @@ public class Bitmap {
 	// because some applications may not want to use the entire
 	// byte array for the bitmap.
 	public Bitmap(byte[] bytes, int numBytes) {
+		this(ByteBuffer.wrap(bytes), numBytes);
+	}
+	
+	// alternative constructor for a bitmap stored in the first numBytes
+	// bytes of a ByteBuffer (absolute index 0 is the first byte)
+	public Bitmap(ByteBuffer bytes, int numBytes) {
 		this.bytes = bytes;
 		this.numBytes = numBytes;
 	}
@@ -39,49 +53,145 @@ public class Bitmap {
 	// set all bits in the bitmap to 0
 	public void clear() {
 		for (int i = 0; i < numBytes; i++) {
-			bytes[i] = 0;
+			bytes.put(i, (byte) 0);
 		}
 	}
 	
 	// return true iff the ith bit is 1
 	public boolean getBit(int i) {
 		// ib is in index of the byte that contains the ith bit
-		int ib = i / Byte.SIZE;
+		int ib = i >>> 3;
 		if (ib >= numBytes) {
 			throw new IllegalArgumentException("getting bit larger than bit map (byte number is "+ib+")");
 		}
 		
 		// get the bit we need from that byte
-		return getBit(bytes[ib], i - ib*Byte.SIZE);
+		return getBit(bytes.get(ib), i & 7);
 	}
 	
 	// set the ith bit to 1 (if bit) or 0 (if !bit)
 	public void setBit(int i, boolean bit) {
 		// ib is in index of the byte that contains the ith bit
-		int ib = i / Byte.SIZE;
+		int ib = i >>> 3;
 		if (ib >= numBytes) {
 			throw new IllegalArgumentException("bit i = "+i+" is larger than "+ib);
 		}
 		
 		// set the bit we need with that byte, and update buffer
-		bytes[ib] = setBit(bytes[ib], i - ib*Byte.SIZE, bit);
+		bytes.put(ib, setBit(bytes.get(ib), i & 7, bit));
 	}
 	
 	// return the index of the first bit that is 0
 	// return -1 if no such bit
 	public int firstZero() {
-		for (int i = 0; i < numBytes; i++) {
-			if (bytes[i] != ONES) {
-				// some block is free; find the index of the first zero bit
-				for (int j = 0; j < Byte.SIZE; j++) {
-					if (!getBit(bytes[i], j)) {
-						return i*Byte.SIZE + j;
-					}
-				}
-				throw new IllegalStateException("no zero bit found");
+		return nextClearBit(0);
+	}
+	
+	// return the index of the first bit at or after from that is 1
+	// return -1 if no such bit
+	public int nextSetBit(int from) {
+		if (from < 0) {
+			throw new IllegalArgumentException("from = "+from+" is negative");
+		}
+		if (from >= size()) {
+			return -1;
+		}
+		int w = from >>> 6;
+		long x = word(w) & (-1L >>> (from & 63));	// ignore bits before from
+		while (x == 0) {
+			if (++w >= numWords()) {
+				return -1;
+			}
+			x = word(w);
+		}
+		return w * Long.SIZE + Long.numberOfLeadingZeros(x);
+	}
+	
+	// return the index of the first bit at or after from that is 0
+	// return -1 if no such bit
+	public int nextClearBit(int from) {
+		if (from < 0) {
+			throw new IllegalArgumentException("from = "+from+" is negative");
+		}
+		if (from >= size()) {
+			return -1;
+		}
+		int w = from >>> 6;
+		long x = ~word(w) & (-1L >>> (from & 63));
+		while (x == 0) {
+			if (++w >= numWords()) {
+				return -1;
+			}
+			x = ~word(w);
+		}
+		// a partial last word is padded with 0s, which are not bits of the map
+		int i = w * Long.SIZE + Long.numberOfLeadingZeros(x);
+		return (i < size()) ? i : -1;
+	}
+	
+	// return the number of bits that are 1
+	public int cardinality() {
+		int n = 0;
+		for (int w = 0; w < numWords(); w++) {
+			n += Long.bitCount(word(w));
+		}
+		return n;
+	}
+	
+	// set this bitmap to this AND other; bits past the end of
+	// other are treated as 0
+	public void and(Bitmap other) {
+		for (int w = 0; w < numWords(); w++) {
+			setWord(w, word(w) & other.word(w));
+		}
+	}
+	
+	// set this bitmap to this OR other
+	public void or(Bitmap other) {
+		for (int w = 0; w < numWords(); w++) {
+			setWord(w, word(w) | other.word(w));
+		}
+	}
+	
+	// clear every bit of this bitmap that is 1 in other
+	public void andNot(Bitmap other) {
+		for (int w = 0; w < numWords(); w++) {
+			setWord(w, word(w) & ~other.word(w));
+		}
+	}
+	
+	// number of long words needed for the bitmap (the last may be partial)
+	private int numWords() {
+		return (numBytes + Long.BYTES - 1) / Long.BYTES;
+	}
+	
+	// return bits 64*w .. 64*w+63 as a long, the first bit in the
+	// high-order position; bits past the end of the bitmap are 0
+	private long word(int w) {
+		int i = w * Long.BYTES;
+		if (i + Long.BYTES <= numBytes) {
+			return bytes.getLong(i);
+		}
+		long x = 0;
+		for (int j = 0; j < Long.BYTES; j++) {
+			x <<= Byte.SIZE;
+			if (i + j < numBytes) {
+				x |= bytes.get(i + j) & 0xff;
 			}
 		}
-		return -1;
+		return x;
+	}
+	
+	// set bits 64*w .. 64*w+63 from a long, as returned by word(w)
+	private void setWord(int w, long x) {
+		int i = w * Long.BYTES;
+		if (i + Long.BYTES <= numBytes) {
+			bytes.putLong(i, x);
+			return;
+		}
+		for (int j = 0; j < Long.BYTES && i + j < numBytes; j++) {
+			bytes.put(i + j, (byte) (x >>> (Long.SIZE - Byte.SIZE * (j + 1))));
+		}
 	}
 	
 	// return true iff the ith bit of b is 1
@@ -114,5 +224,5 @@ public class Bitmap {
 		}
 		return sb.toString();
 	}
-	
+
 }
@@ -22,6 +22,15 @@ public class BlockBuffer {
 		this.blockSize = blockSize;
 	}
 	
+	/**
+	 * create a buffer backed by the given byte buffer, such as a view
+	 * of a block in a memory-mapped file
+	 */
+	BlockBuffer(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.blockSize = buffer.capacity();
+	}
+	
 	/**
 	 * reset the buffer location to the beginning of the buffer
 	 */
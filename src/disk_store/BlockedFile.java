@@ -2,10 +2,12 @@ package disk_store;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -28,26 +30,52 @@ import java.util.ListIterator;
  * int a = bf.get();
  * int b = bf.get();
  * 
+ * A blocked file can optionally be opened in memory-mapped mode.  In
+ * that mode the file is mapped in segments of blocksPerSegment blocks,
+ * reads and writes are memory copies rather than system calls, and
+ * view() gives direct access to a block of the mapped file.
+ * 
+ * Blocks are read and written with positional I/O, which does not use
+ * or change the channel's file position, so it is safe for several
+ * threads to read and write blocks of the same file concurrently, as
+ * long as each thread uses its own BlockBuffer and threads do not
+ * access the same block at the same time.  Access to a single block
+ * must be coordinated by the caller: a read that overlaps a write of
+ * the same block may see part of each.
+ * 
  * @author Glenn
  *
  */
 
 /* Implementation notes:
- *  - Efficiency may be improved by taking advantage of the memory
- *    mapping supported by FileChannel.
+ *  - Mapping a segment READ_WRITE past the end of the file grows the
+ *    file to the end of the segment, so in mapped mode the file is
+ *    truncated back to lastBlockIndex+1 blocks on close.
  *  - Note that class BlockBuffer is no longer used here.
  */
 
 public class BlockedFile {
 	
 	private FileChannel fc;
-	private long lastBlockIndex;
+	private volatile long lastBlockIndex;
 	static final int blockSize = 1024*4;
 	
+	// memory-mapped mode: segments[i] maps blocks
+	// i*blocksPerSegment .. (i+1)*blocksPerSegment-1, or is null
+	// if that part of the file has not been mapped yet.  The array is
+	// never changed once published; mapping a segment publishes a new
+	// copy, so readers find segments without taking a lock.
+	static final int blocksPerSegment = 256;	// 1 MB segments
+	private static final long segmentSize = (long) blocksPerSegment * blockSize;
+	private boolean mapped;
+	private volatile MappedByteBuffer[] segments;
+	
 	// private constructor
-	private BlockedFile(FileChannel fc, long lastBlockIndex) {
+	private BlockedFile(FileChannel fc, long lastBlockIndex, boolean mapped) {
 		this.fc = fc;
 		this.lastBlockIndex = lastBlockIndex;
+		this.mapped = mapped;
+		segments = new MappedByteBuffer[0];
 	}
 	
 	/** 
@@ -55,7 +83,18 @@ public class BlockedFile {
 	 * @param filename
 	 */
 	public BlockedFile(String filename) {
+		this(filename, false);
+	}
+	
+	/** 
+	 * create a new blocked file, optionally in memory-mapped mode
+	 * @param filename
+	 * @param mapped true if the file is to be memory mapped
+	 */
+	public BlockedFile(String filename, boolean mapped) {
 		this.lastBlockIndex = 0;
+		this.mapped = mapped;
+		segments = new MappedByteBuffer[0];
 		Path file = Paths.get(filename);
 		try {
 			// create a file channel
@@ -70,6 +109,16 @@ public class BlockedFile {
 	 * @param filename
 	 */
 	public static BlockedFile open(String filename) {
+		return open(filename, false);
+	}
+	
+	/**
+	 * open an existing blocked file for reading and writing, optionally
+	 * in memory-mapped mode
+	 * @param filename
+	 * @param mapped true if the file is to be memory mapped
+	 */
+	public static BlockedFile open(String filename, boolean mapped) {
 		FileChannel fc = null;
 		long sz = 0;
 		Path file = Paths.get(filename);
@@ -84,15 +133,26 @@ public class BlockedFile {
 			throw new IllegalStateException("not a blocked file: file does not have an integral number of blocks");
 		}
 		
-		BlockedFile bf = new BlockedFile(fc, sz % blockSize);
+		BlockedFile bf = new BlockedFile(fc, Math.max(0, sz / blockSize - 1), mapped);
 		return bf;
 	}
 	
 	/**
 	 * close a blocked file
 	 */
-	public void close() {
+	public synchronized void close() {
 		try {
+			if (mapped) {
+				// flush the mapped segments, then drop the part of the
+				// last segment beyond the last block
+				for (MappedByteBuffer segment : segments) {
+					if (segment != null) {
+						segment.force();
+					}
+				}
+				segments = new MappedByteBuffer[0];
+				fc.truncate((lastBlockIndex + 1) * blockSize);
+			}
 			fc.close();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -111,12 +171,24 @@ public class BlockedFile {
 	 * @param b a BlockBuffer
 	 * @return
 	 */
-	public int read(int index, BlockBuffer buf) {
+	public int read(long index, BlockBuffer buf) {
 		buf.reset();
+		if (mapped) {
+			buf.buffer.put(region(index));
+			buf.reset();
+			return blockSize;
+		}
 		int numBytesRead = 0;
 		try {
-			fc.position(index * blockSize);
-			numBytesRead = fc.read(buf.buffer);
+			// a positional read may return fewer bytes than asked for
+			long position = index * (long) blockSize;
+			while (buf.buffer.hasRemaining()) {
+				int n = fc.read(buf.buffer, position + numBytesRead);
+				if (n < 0) {
+					break;	// end of file
+				}
+				numBytesRead += n;
+			}
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -131,23 +203,105 @@ public class BlockedFile {
      * @param index block index
      * @param b block
      */
-	public void write(int index, BlockBuffer buf) {
+	public void write(long index, BlockBuffer buf) {
 		buf.reset();
+		if (mapped) {
+			region(index).put(buf.buffer);
+			buf.reset();
+			extendTo(index);
+			return;
+		}
 		try {
-			fc.position(index * blockSize);
-			fc.write(buf.buffer);
+			long position = index * (long) blockSize;
+			while (buf.buffer.hasRemaining()) {
+				position += fc.write(buf.buffer, position);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw new IllegalStateException("Error: can't write block to file");
 		}
 		// writing changes the buffer's position value
 		buf.reset();
+		extendTo(index);
+	}
+	
+	// note that the file now has a block with the given index
+	private synchronized void extendTo(long index) {
 		if (index > lastBlockIndex) {
 			lastBlockIndex = index;
 		}
 	}
 
+	/**
+	 * Return a buffer that is a view of the block at the specified
+	 * index in the mapped file.  Nothing is copied: changes to the
+	 * buffer are changes to the file, so a view never needs to be
+	 * written.  Taking a view of a block past the end of the file
+	 * extends the file to include that block.
+	 * @param index block index
+	 * @return a BlockBuffer backed by the mapped block
+	 */
+	public BlockBuffer view(long index) {
+		if (!mapped) {
+			throw new IllegalStateException("view requires a memory-mapped file");
+		}
+		BlockBuffer buf = new BlockBuffer(region(index).slice());
+		extendTo(index);
+		return buf;
+	}
+	
+	/**
+	 * return true if this file is memory mapped
+	 */
+	public boolean isMapped() {
+		return mapped;
+	}
+	
+	// return a buffer over the mapped segment containing the block with
+	// the given index, with its position and limit around the block,
+	// mapping the segment if needed.  Each call returns a new buffer, so
+	// threads never share buffer positions.
+	private ByteBuffer region(long index) {
+		int seg = (int) (index / blocksPerSegment);
+		ByteBuffer b = segment(seg).duplicate();
+		int offset = (int) (index % blocksPerSegment) * blockSize;
+		b.limit(offset + blockSize);
+		b.position(offset);
+		return b;
+	}
+
+	// return mapped segment seg, mapping it if needed
+	private MappedByteBuffer segment(int seg) {
+		MappedByteBuffer[] segs = segments;
+		if (seg < segs.length && segs[seg] != null) {
+			return segs[seg];
+		}
+		return mapSegment(seg);
+	}
+	
+	// map segment seg, if another thread has not mapped it already
+	private synchronized MappedByteBuffer mapSegment(int seg) {
+		MappedByteBuffer[] segs = segments;
+		if (seg < segs.length && segs[seg] != null) {
+			return segs[seg];
+		}
+		MappedByteBuffer segment;
+		try {
+			segment = fc.map(FileChannel.MapMode.READ_WRITE, seg * segmentSize, segmentSize);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new IllegalStateException("Error: can't map segment "+seg+" of file");
+		}
+		segs = Arrays.copyOf(segs, Math.max(segs.length, seg + 1));
+		segs[seg] = segment;
+		segments = segs;
+		return segment;
+	}
+
 	public long size() {
+		if (mapped) {
+			return (lastBlockIndex + 1) * blockSize;
+		}
 		try {
 			return fc.size();
 		} catch (IOException e) {
@@ -165,13 +319,7 @@ public class BlockedFile {
 	}
 	
 	public String toString() {
-		try {
-			return "blocked file of size "+fc.size();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return "";
+		return "blocked file of size "+size();
 	}
 	
 }
@@ -0,0 +1,103 @@
+package disk_store;
+
+/**
+ * A Bloom filter over integer keys.  mightContain(key) is true for every
+ * key that was added, and false for most keys that were not, so a false
+ * answer saves a lookup.  Keys cannot be removed.
+ *
+ * The filter is sized for an expected number of keys and a wanted rate
+ * of false positives: with n keys and rate p it has
+ * m = -n ln p / (ln 2)^2 bits and k = (m/n) ln 2 hash functions.  The k
+ * bit positions of a key come from one 64-bit hash by double hashing,
+ * h1 + i*h2.  Once more than the expected number of keys are added the
+ * rate of false positives goes up; count() lets the owner tell when to
+ * build a bigger filter.
+ *
+ */
+
+public class BloomFilter {
+	
+	private long[] words;
+	private long numBits;
+	private int numHashes;
+	private int capacity;	// expected number of keys
+	private int count;		// number of keys added
+	
+	/**
+	 * Create an empty filter.
+	 * @param capacity the expected number of keys
+	 * @param falsePositiveRate the wanted rate of false positives, when
+	 * the filter holds capacity keys
+	 */
+	public BloomFilter(int capacity, double falsePositiveRate) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("false positive rate must be between 0 and 1");
+		}
+		double ln2 = Math.log(2);
+		long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+		words = new long[(int) ((Math.max(m, Long.SIZE) + Long.SIZE - 1) / Long.SIZE)];
+		numBits = (long) words.length * Long.SIZE;
+		numHashes = Math.max(1, (int) Math.round((double) numBits / capacity * ln2));
+		this.capacity = capacity;
+		count = 0;
+	}
+	
+	/**
+	 * Add a key.
+	 */
+	public void add(int key) {
+		long h = hash(key);
+		long h1 = h >>> 32;
+		long h2 = (h & 0xffffffffL) | 1;	// never 0
+		for (int i = 0; i < numHashes; i++) {
+			long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+			words[(int) (bit >>> 6)] |= 1L << (bit & 63);
+		}
+		count++;
+	}
+	
+	/**
+	 * Return false if the key was never added, and true if it may have
+	 * been.
+	 */
+	public boolean mightContain(int key) {
+		long h = hash(key);
+		long h1 = h >>> 32;
+		long h2 = (h & 0xffffffffL) | 1;	// never 0
+		for (int i = 0; i < numHashes; i++) {
+			long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+			if ((words[(int) (bit >>> 6)] & (1L << (bit & 63))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Return the expected number of keys the filter was sized for.
+	 */
+	public int capacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Return the number of times add() was called.
+	 */
+	public int count() {
+		return count;
+	}
+	
+	// mix the bits of a key (the finalizer of MurmurHash3)
+	private static long hash(int key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,316 @@
+package disk_store;
+
+/**
+ * A pool of block-sized buffers (frames) between a database and its
+ * blocked file.
+ *
+ * A block is pinned while it is being used and unpinned when the caller
+ * is done with it.  The caller says on unpin whether the block was
+ * changed; a changed (dirty) block is written back to the file when its
+ * frame is reused for another block, or when the pool is flushed or
+ * closed.  Frames to reuse are chosen with the CLOCK algorithm: each
+ * frame has a reference bit that is set when the frame is pinned, and
+ * the clock hand clears reference bits until it finds an unpinned
+ * frame whose bit is already clear.
+ *
+ * Typical use:
+ * BlockBuffer buf = pool.pin(blockNum);
+ * ... read or change buf ...
+ * pool.unpin(blockNum, changed);
+ *
+ * If the file is memory mapped, the operating system already caches
+ * the file's pages, so no frames are used: pin returns a view of the
+ * mapped block and unpin has nothing to write.
+ */
+
+public class BufferPool {
+
+	private BlockedFile bf;
+
+	// frame i holds block blockNums[i], or no block if blockNums[i] is -1
+	private BlockBuffer[] frames;
+	private long[] blockNums;
+	private int[] pinCounts;
+	private boolean[] dirty;
+	private boolean[] referenced;	// CLOCK reference bits
+	private int hand;				// CLOCK hand
+
+	// frame number of each block in the pool
+	private FrameTable frameOf;
+
+	// number of blocks read from and written to the file
+	private long numReads;
+	private long numWrites;
+
+	/**
+	 * Create a buffer pool with the given number of frames for the
+	 * given file.
+	 * @param bf a blocked file
+	 * @param numFrames number of block buffers in the pool
+	 */
+	public BufferPool(BlockedFile bf, int numFrames) {
+		if (numFrames < 1) {
+			throw new IllegalArgumentException("a buffer pool needs at least one frame");
+		}
+		this.bf = bf;
+		frames = new BlockBuffer[numFrames];
+		blockNums = new long[numFrames];
+		pinCounts = new int[numFrames];
+		dirty = new boolean[numFrames];
+		referenced = new boolean[numFrames];
+		for (int i = 0; i < numFrames; i++) {
+			blockNums[i] = -1;
+		}
+		frameOf = new FrameTable(numFrames);
+	}
+
+	/**
+	 * Pin the block with the given number, reading it from the file if
+	 * it is not already in the pool.
+	 * @param blockNum block index
+	 * @return the buffer holding the block
+	 */
+	public BlockBuffer pin(long blockNum) {
+		if (bf.isMapped()) {
+			return bf.view(blockNum);
+		}
+		int f = frameOf.get(blockNum);
+		if (f < 0) {
+			f = victim();
+			bf.read(blockNum, frames[f]);
+			numReads++;
+			assign(f, blockNum);
+		}
+		pinCounts[f]++;
+		referenced[f] = true;
+		return frames[f];
+	}
+
+	/**
+	 * Pin a new, zero-filled block with the given number.  The empty
+	 * block is written to the file right away, so the file grows to
+	 * include it.
+	 * @param blockNum block index of the new block
+	 * @return the buffer holding the block
+	 */
+	public BlockBuffer pinNew(long blockNum) {
+		BlockBuffer buf;
+		if (bf.isMapped()) {
+			buf = bf.view(blockNum);
+		} else {
+			int f = frameOf.get(blockNum);
+			if (f < 0) {
+				f = victim();
+				assign(f, blockNum);
+			}
+			pinCounts[f]++;
+			referenced[f] = true;
+			buf = frames[f];
+		}
+		for (int i = 0; i < buf.buffer.capacity(); i++) {
+			buf.buffer.put(i, (byte) 0);
+		}
+		if (!bf.isMapped()) {
+			bf.write(blockNum, buf);
+			numWrites++;
+		}
+		return buf;
+	}
+
+	/**
+	 * Unpin the block with the given number.
+	 * @param blockNum block index
+	 * @param changed true if the block was changed while it was pinned
+	 */
+	public void unpin(long blockNum, boolean changed) {
+		if (bf.isMapped()) {
+			return;
+		}
+		int f = frameOf.get(blockNum);
+		if (f < 0 || pinCounts[f] == 0) {
+			throw new IllegalStateException("block "+blockNum+" is not pinned");
+		}
+		pinCounts[f]--;
+		if (changed) {
+			dirty[f] = true;
+		}
+	}
+
+	/**
+	 * Mark a pinned block as changed, without unpinning it.
+	 * @param blockNum block index
+	 */
+	public void markDirty(long blockNum) {
+		if (bf.isMapped()) {
+			return;
+		}
+		int f = frameOf.get(blockNum);
+		if (f < 0 || pinCounts[f] == 0) {
+			throw new IllegalStateException("block "+blockNum+" is not pinned");
+		}
+		dirty[f] = true;
+	}
+
+	/**
+	 * Write all changed blocks in the pool to the file.
+	 */
+	public void flush() {
+		for (int f = 0; f < frames.length; f++) {
+			if (dirty[f]) {
+				writeBack(f);
+			}
+		}
+	}
+
+	/**
+	 * Write all changed blocks to the file.  The pool should not be
+	 * used after it is closed; the file itself is not closed.
+	 */
+	public void close() {
+		flush();
+	}
+
+	/**
+	 * Return the number of frames in the pool.
+	 */
+	public int size() {
+		return frames.length;
+	}
+
+	/**
+	 * Return the number of blocks read from the file by the pool.
+	 */
+	public long getNumReads() {
+		return numReads;
+	}
+
+	/**
+	 * Return the number of blocks written to the file by the pool.
+	 */
+	public long getNumWrites() {
+		return numWrites;
+	}
+
+	// return the number of a frame that can be used for a new block,
+	// writing back the block it holds if that block is dirty
+	private int victim() {
+		// two full sweeps are enough to clear every reference bit
+		for (int i = 0; i < 2 * frames.length; i++) {
+			int f = hand;
+			hand = (hand + 1) % frames.length;
+			if (frames[f] == null) {
+				frames[f] = bf.getBuffer();
+				return f;
+			}
+			if (pinCounts[f] > 0) {
+				continue;
+			}
+			if (referenced[f]) {
+				referenced[f] = false;
+				continue;
+			}
+			if (dirty[f]) {
+				writeBack(f);
+			}
+			frameOf.remove(blockNums[f]);
+			blockNums[f] = -1;
+			return f;
+		}
+		throw new IllegalStateException("Error: all "+frames.length+" buffer pool frames are pinned");
+	}
+
+	// make frame f hold the given block
+	private void assign(int f, long blockNum) {
+		blockNums[f] = blockNum;
+		frameOf.put(blockNum, f);
+		dirty[f] = false;
+		pinCounts[f] = 0;
+	}
+
+	// write frame f to the file
+	private void writeBack(int f) {
+		bf.write(blockNums[f], frames[f]);
+		numWrites++;
+		dirty[f] = false;
+	}
+
+	// an open-addressing hash table from block number to frame number,
+	// with linear probing; it never holds more blocks than there are
+	// frames, so it is made big enough once and never grows
+	private static class FrameTable {
+
+		private long[] keys;	// block numbers, -1 for an empty slot
+		private int[] values;	// frame numbers
+		private int mask;
+		private int size;
+
+		FrameTable(int numFrames) {
+			int capacity = Integer.highestOneBit(Math.max(2, 2 * numFrames - 1)) << 1;
+			keys = new long[capacity];
+			values = new int[capacity];
+			mask = capacity - 1;
+			for (int i = 0; i < capacity; i++) {
+				keys[i] = -1;
+			}
+		}
+
+		// return the frame of the given block, or -1 if it has none
+		int get(long blockNum) {
+			for (int i = home(blockNum); keys[i] != -1; i = (i + 1) & mask) {
+				if (keys[i] == blockNum) {
+					return values[i];
+				}
+			}
+			return -1;
+		}
+
+		void put(long blockNum, int f) {
+			int i = home(blockNum);
+			while (keys[i] != -1 && keys[i] != blockNum) {
+				i = (i + 1) & mask;
+			}
+			if (keys[i] == -1) {
+				size++;
+			}
+			keys[i] = blockNum;
+			values[i] = f;
+		}
+
+		void remove(long blockNum) {
+			int i = home(blockNum);
+			while (keys[i] != blockNum) {
+				if (keys[i] == -1) {
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			size--;
+			// move back later entries of the cluster that would no longer
+			// be found past the empty slot
+			int hole = i;
+			for (int j = (i + 1) & mask; keys[j] != -1; j = (j + 1) & mask) {
+				int h = home(keys[j]);
+				if (((j - h) & mask) >= ((j - hole) & mask)) {
+					keys[hole] = keys[j];
+					values[hole] = values[j];
+					hole = j;
+				}
+			}
+			keys[hole] = -1;
+		}
+
+		int size() {
+			return size;
+		}
+
+		private int home(long blockNum) {
+			long h = blockNum * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32)) & mask;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "buffer pool of "+frames.length+" frames ("+frameOf.size()+" in use)";
+	}
+}
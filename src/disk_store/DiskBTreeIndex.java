@@ -0,0 +1,631 @@
+package disk_store;
+
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An ordered index implemented as a B+tree whose nodes are the blocks
+ * of a blocked file, so that the index survives the program that built
+ * it.  Duplicate search key values are allowed, but not duplicate
+ * index table entries.
+ *
+ * File layout:
+ * - block 0 is a header: a magic number, the block number of the root,
+ *   the number of entries, and an epoch set by the user of the index
+ * - every other block is a node
+ *
+ * Node layout:
+ * - an int giving the node type (0 = leaf, 1 = inner)
+ * - an int giving the number n of entries (separators, for an inner node)
+ * - for a leaf, the block numbers of the next and previous leaves (-1 if none)
+ * - a leaf then holds n entries of (key int, blockNum long, count int),
+ *   ordered by key and then by blockNum
+ * - an inner node holds n+1 child block numbers followed by n separators
+ *   of (key int, blockNum long); child i holds the entries that are at
+ *   least separator i-1 and less than separator i
+ *
+ * Nodes are read and written through a buffer pool.  The header and any
+ * changed nodes are written to the file by flush() and close(); an
+ * index file that was not closed may not be usable.  A user of the
+ * index can record an epoch in the header, with setEpoch(), to check
+ * when the index is opened again that it was closed along with the
+ * data it indexes (HeapDB records the epoch of its heap file).
+ *
+ * Deleting an entry removes it from its leaf, but nodes are never merged,
+ * as in many database systems.  The tree only grows at the root, so all
+ * leaves stay at the same depth.
+ *
+ */
+
+public class DiskBTreeIndex implements OrderedIndex {
+	
+	private static final int magic = 0x42545245;	// "BTRE"
+	private static final int poolSize = 64;
+	
+	// header block
+	private static final int headerBlock = 0;
+	private static final int magicPosition = 0;
+	private static final int rootPosition = magicPosition + Long.BYTES;
+	private static final int sizePosition = rootPosition + Long.BYTES;
+	private static final int epochPosition = sizePosition + Long.BYTES;
+	
+	// node layout (see details above)
+	private static final int leafType = 0;
+	private static final int innerType = 1;
+	private static final int typePosition = 0;
+	private static final int countPosition = typePosition + Integer.BYTES;
+	private static final int nextPosition = countPosition + Integer.BYTES;
+	private static final int prevPosition = nextPosition + Long.BYTES;
+	private static final int entriesPosition = prevPosition + Long.BYTES;
+	private static final int leafEntrySize = Integer.BYTES + Long.BYTES + Integer.BYTES;
+	private static final int separatorSize = Integer.BYTES + Long.BYTES;
+	
+	private BlockedFile bf;
+	private BufferPool pool;
+	private long root;		// block number of the root
+	private long size;		// number of entries, counting duplicates
+	private long epoch;		// as set by setEpoch()
+	
+	// a node may briefly hold one entry more than its order, until it is split
+	private int leafOrder;
+	private int innerOrder;
+	private int separatorsPosition;	// position of the separators of an inner node
+	private byte[] scratch;			// for moving entries within a node
+	
+	// separator and new node produced by a split, for the parent
+	private int splitKey;
+	private long splitBlockNum;
+	private long splitNode = -1;
+	
+	/**
+	 * Create a new, empty index in a file with the given name.  An
+	 * existing file with that name is replaced.
+	 * @param filename
+	 */
+	public DiskBTreeIndex(String filename) {
+		new File(filename).delete();
+		init(new BlockedFile(filename));
+		BlockBuffer header = pool.pinNew(headerBlock);
+		header.buffer.putInt(magicPosition, magic);
+		pool.unpin(headerBlock, true);
+		root = newNode(leafType);
+		size = 0;
+		writeHeader();
+	}
+	
+	// set up the file, pool and node layout
+	private DiskBTreeIndex(BlockedFile bf) {
+		init(bf);
+	}
+	
+	/**
+	 * Open an existing index file.
+	 * @param filename
+	 * @return
+	 */
+	public static DiskBTreeIndex open(String filename) {
+		DiskBTreeIndex index = new DiskBTreeIndex(BlockedFile.open(filename));
+		ByteBuffer header = index.pool.pin(headerBlock).buffer;
+		if (header.getInt(magicPosition) != magic) {
+			index.pool.unpin(headerBlock, false);
+			index.bf.close();
+			throw new IllegalStateException("not a B+tree index file: "+filename);
+		}
+		index.root = header.getLong(rootPosition);
+		index.size = header.getLong(sizePosition);
+		index.epoch = header.getLong(epochPosition);
+		index.pool.unpin(headerBlock, false);
+		return index;
+	}
+	
+	private void init(BlockedFile bf) {
+		this.bf = bf;
+		pool = new BufferPool(bf, poolSize);
+		int blockSize = bf.blockSize();
+		leafOrder = (blockSize - entriesPosition) / leafEntrySize - 1;
+		innerOrder = (blockSize - entriesPosition - 2 * Long.BYTES) / (Long.BYTES + separatorSize) - 1;
+		separatorsPosition = entriesPosition + (innerOrder + 2) * Long.BYTES;
+		scratch = new byte[blockSize];
+	}
+	
+	/**
+	 * Return the epoch recorded in the header: the last value given to
+	 * setEpoch(), or 0 for a new index.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * Set the epoch to record in the header.  It is written to the file
+	 * by the next flush() or close().
+	 * @param epoch
+	 */
+	public void setEpoch(long epoch) {
+		this.epoch = epoch;
+	}
+	
+	/**
+	 * Write the header and all changed nodes to the file.
+	 */
+	public void flush() {
+		writeHeader();
+		pool.flush();
+	}
+	
+	/**
+	 * Flush the index and close its file.
+	 */
+	public void close() {
+		flush();
+		bf.close();
+	}
+	
+	@Override
+	public List<Long> lookup(int key) {
+		ArrayList<Long> blockNoList = new ArrayList<>();
+		long page = findLeaf(key, Long.MIN_VALUE);
+		ByteBuffer b = pool.pin(page).buffer;
+		int i = lowerBound(b, key, Long.MIN_VALUE);
+		while (true) {
+			for (; i < count(b); i++) {
+				if (leafKey(b, i) != key) {
+					pool.unpin(page, false);
+					return blockNoList;
+				}
+				blockNoList.add(leafBlockNum(b, i));
+			}
+			long next = b.getLong(nextPosition);
+			pool.unpin(page, false);
+			if (next < 0) {
+				return blockNoList;
+			}
+			page = next;
+			b = pool.pin(page).buffer;
+			i = 0;
+		}
+	}
+	
+	@Override
+	public List<Long> lookupRange(int lo, int hi) {
+		ArrayList<Long> blockNoList = new ArrayList<>();
+		if (lo > hi) {
+			return blockNoList;
+		}
+		long page = findLeaf(lo, Long.MIN_VALUE);
+		ByteBuffer b = pool.pin(page).buffer;
+		int i = lowerBound(b, lo, Long.MIN_VALUE);
+		while (true) {
+			for (; i < count(b); i++) {
+				if (leafKey(b, i) > hi) {
+					pool.unpin(page, false);
+					return blockNoList;
+				}
+				blockNoList.add(leafBlockNum(b, i));
+			}
+			long next = b.getLong(nextPosition);
+			pool.unpin(page, false);
+			if (next < 0) {
+				return blockNoList;
+			}
+			page = next;
+			b = pool.pin(page).buffer;
+			i = 0;
+		}
+	}
+	
+	@Override
+	public Iterator<Long> iterator(boolean descending) {
+		return new LeafIterator(descending);
+	}
+	
+	// An iterator over the entries of the leaves, following the links
+	// between them forward or backward.  The entries of a leaf are
+	// copied out when the iterator reaches it, so no page stays pinned.
+	private class LeafIterator implements Iterator<Long> {
+		boolean descending;
+		long page; // next leaf to read, or -1
+		long[] blockNums = new long[leafOrder + 1]; // entries of the last leaf read
+		int n; // number of entries of the last leaf read
+		int i; // next of them
+	
+		LeafIterator(boolean descending) {
+			this.descending = descending;
+			page = descending ? findLeaf(Integer.MAX_VALUE, Long.MAX_VALUE) : findLeaf(Integer.MIN_VALUE, Long.MIN_VALUE);
+		}
+	
+		public boolean hasNext() {
+			while (i >= n && page >= 0) {
+				ByteBuffer b = pool.pin(page).buffer;
+				n = count(b);
+				for (int j = 0; j < n; j++) {
+					blockNums[j] = leafBlockNum(b, descending ? n - 1 - j : j);
+				}
+				i = 0;
+				long link = b.getLong(descending ? prevPosition : nextPosition);
+				pool.unpin(page, false);
+				page = link;
+			}
+			return i < n;
+		}
+	
+		public Long next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return blockNums[i++];
+		}
+	}
+	
+	@Override
+	public void insert(int key, long blockNum) {
+		splitNode = -1;
+		insert(root, key, blockNum);
+		if (splitNode >= 0) {
+			// the root was split; grow the tree by one level
+			long newRoot = newNode(innerType);
+			ByteBuffer b = pool.pin(newRoot).buffer;
+			setChild(b, 0, root);
+			setChild(b, 1, splitNode);
+			setSeparator(b, 0, splitKey, splitBlockNum);
+			b.putInt(countPosition, 1);
+			pool.unpin(newRoot, true);
+			root = newRoot;
+			splitNode = -1;
+		}
+	}
+	
+	@Override
+	public void delete(int key, long blockNum) {
+		long page = findLeaf(key, blockNum);
+		ByteBuffer b = pool.pin(page).buffer;
+		int n = count(b);
+		int i = lowerBound(b, key, blockNum);
+		if (i == n || leafKey(b, i) != key || leafBlockNum(b, i) != blockNum) {
+			pool.unpin(page, false);
+			return;
+		}
+		size--;
+		int cnt = leafCount(b, i) - 1;
+		if (cnt > 0) {
+			b.putInt(leafEntry(i) + Integer.BYTES + Long.BYTES, cnt);
+		} else {
+			move(b, leafEntry(i + 1), leafEntry(i), (n - i - 1) * leafEntrySize);
+			b.putInt(countPosition, n - 1);
+		}
+		pool.unpin(page, true);
+	}
+	
+	/**
+	 * Return the number of entries in the index
+	 * @return
+	 */
+	public long size() {
+		return size;
+	}
+	
+	/**
+	 * Build the index from the first n entries of the given arrays,
+	 * which must be in order by key and then by blockNum, with no pair
+	 * repeated; counts[i] is the number of times pair i was inserted.
+	 * The nodes are written a level at a time, starting with the
+	 * leaves, which are full and in consecutive blocks.  The index must
+	 * be empty.
+	 */
+	public void load(int[] keys, long[] blockNums, int[] counts, int n) {
+		if (size != 0) {
+			throw new IllegalStateException("can only load an empty index");
+		}
+		if (n == 0) {
+			return;
+		}
+		
+		// the leaves; the first is the empty root, and the others are
+		// added to the end of the file in order
+		int numNodes = (n + leafOrder - 1) / leafOrder;
+		long[] level = new long[numNodes];
+		int[] firstKeys = new int[numNodes];
+		long[] firstBlockNums = new long[numNodes];
+		long base = bf.getLastBlockIndex() + 1;
+		for (int k = 0, start = 0; k < numNodes; k++) {
+			int end = (int) ((long) n * (k + 1) / numNodes);
+			level[k] = (k == 0) ? root : newNode(leafType);
+			ByteBuffer b = pool.pin(level[k]).buffer;
+			for (int i = start; i < end; i++) {
+				setLeafEntry(b, i - start, keys[i], blockNums[i], counts[i]);
+				size += counts[i];
+			}
+			b.putInt(countPosition, end - start);
+			b.putLong(prevPosition, (k == 0) ? -1 : level[k - 1]);
+			b.putLong(nextPosition, (k == numNodes - 1) ? -1 : base + k);
+			pool.unpin(level[k], true);
+			firstKeys[k] = keys[start];
+			firstBlockNums[k] = blockNums[start];
+			start = end;
+		}
+		
+		// inner levels, each with up to innerOrder+1 children per node
+		while (numNodes > 1) {
+			int numParents = (numNodes + innerOrder) / (innerOrder + 1);
+			for (int k = 0, start = 0; k < numParents; k++) {
+				int end = (int) ((long) numNodes * (k + 1) / numParents);
+				long page = newNode(innerType);
+				ByteBuffer b = pool.pin(page).buffer;
+				for (int c = start; c < end; c++) {
+					setChild(b, c - start, level[c]);
+					if (c > start) {
+						setSeparator(b, c - start - 1, firstKeys[c], firstBlockNums[c]);
+					}
+				}
+				b.putInt(countPosition, end - start - 1);
+				pool.unpin(page, true);
+				level[k] = page;
+				firstKeys[k] = firstKeys[start];
+				firstBlockNums[k] = firstBlockNums[start];
+				start = end;
+			}
+			numNodes = numParents;
+		}
+		root = level[0];
+		writeHeader();
+	}
+	
+	// insert an entry below the given node; if the node splits, set
+	// splitNode to the new right node and splitKey/splitBlockNum to the
+	// separator between them
+	private void insert(long page, int key, long blockNum) {
+		ByteBuffer b = pool.pin(page).buffer;
+		int n = count(b);
+		if (b.getInt(typePosition) == leafType) {
+			int i = lowerBound(b, key, blockNum);
+			size++;
+			if (i < n && leafKey(b, i) == key && leafBlockNum(b, i) == blockNum) {
+				b.putInt(leafEntry(i) + Integer.BYTES + Long.BYTES, leafCount(b, i) + 1);
+				pool.unpin(page, true);
+				return;
+			}
+			move(b, leafEntry(i), leafEntry(i + 1), (n - i) * leafEntrySize);
+			setLeafEntry(b, i, key, blockNum, 1);
+			b.putInt(countPosition, n + 1);
+			if (n + 1 > leafOrder) {
+				splitLeaf(page, b);
+			}
+			pool.unpin(page, true);
+			return;
+		}
+	
+		int c = childIndex(b, key, blockNum);
+		insert(child(b, c), key, blockNum);
+		if (splitNode < 0) {
+			pool.unpin(page, false);
+			return;
+		}
+		move(b, separator(c), separator(c + 1), (n - c) * separatorSize);
+		move(b, childPosition(c + 1), childPosition(c + 2), (n - c) * Long.BYTES);
+		setSeparator(b, c, splitKey, splitBlockNum);
+		setChild(b, c + 1, splitNode);
+		b.putInt(countPosition, n + 1);
+		splitNode = -1;
+		if (n + 1 > innerOrder) {
+			splitInner(b);
+		}
+		pool.unpin(page, true);
+	}
+	
+	// move the upper half of a leaf to a new leaf
+	private void splitLeaf(long page, ByteBuffer b) {
+		int n = count(b);
+		int mid = n / 2;
+		long right = newNode(leafType);
+		ByteBuffer r = pool.pin(right).buffer;
+		copy(b, leafEntry(mid), r, leafEntry(0), (n - mid) * leafEntrySize);
+		r.putInt(countPosition, n - mid);
+		b.putInt(countPosition, mid);
+	
+		long next = b.getLong(nextPosition);
+		r.putLong(nextPosition, next);
+		r.putLong(prevPosition, page);
+		b.putLong(nextPosition, right);
+		if (next >= 0) {
+			pool.pin(next).buffer.putLong(prevPosition, right);
+			pool.unpin(next, true);
+		}
+	
+		splitKey = leafKey(r, 0);
+		splitBlockNum = leafBlockNum(r, 0);
+		splitNode = right;
+		pool.unpin(right, true);
+	}
+	
+	// move the upper half of an inner node to a new node; the middle
+	// separator moves up to the parent
+	private void splitInner(ByteBuffer b) {
+		int n = count(b);
+		int mid = n / 2;
+		long right = newNode(innerType);
+		ByteBuffer r = pool.pin(right).buffer;
+		int rn = n - mid - 1;
+		copy(b, separator(mid + 1), r, separator(0), rn * separatorSize);
+		copy(b, childPosition(mid + 1), r, childPosition(0), (rn + 1) * Long.BYTES);
+		r.putInt(countPosition, rn);
+		splitKey = separatorKey(b, mid);
+		splitBlockNum = separatorBlockNum(b, mid);
+		splitNode = right;
+		b.putInt(countPosition, mid);
+		pool.unpin(right, true);
+	}
+	
+	// add an empty node of the given type to the end of the file, and
+	// return its block number
+	private long newNode(int type) {
+		long page = bf.getLastBlockIndex() + 1;
+		ByteBuffer b = pool.pinNew(page).buffer;
+		b.putInt(typePosition, type);
+		b.putInt(countPosition, 0);
+		b.putLong(nextPosition, -1);
+		b.putLong(prevPosition, -1);
+		pool.unpin(page, true);
+		return page;
+	}
+	
+	// return the leaf that holds the given entry, if it is present
+	private long findLeaf(int key, long blockNum) {
+		long page = root;
+		while (true) {
+			ByteBuffer b = pool.pin(page).buffer;
+			if (b.getInt(typePosition) == leafType) {
+				pool.unpin(page, false);
+				return page;
+			}
+			long c = child(b, childIndex(b, key, blockNum));
+			pool.unpin(page, false);
+			page = c;
+		}
+	}
+	
+	// return the child of an inner node that holds the given entry,
+	// which is the number of separators that are not above it
+	private int childIndex(ByteBuffer b, int key, long blockNum) {
+		int lo = 0, hi = count(b);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(separatorKey(b, mid), separatorBlockNum(b, mid), key, blockNum) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	// return the position of the first entry of a leaf that is not
+	// below the given entry
+	private int lowerBound(ByteBuffer b, int key, long blockNum) {
+		int lo = 0, hi = count(b);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(leafKey(b, mid), leafBlockNum(b, mid), key, blockNum) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	// compare two entries by key, then by block number
+	private static int compare(int key1, long blockNum1, int key2, long blockNum2) {
+		if (key1 != key2) {
+			return Integer.compare(key1, key2);
+		}
+		return Long.compare(blockNum1, blockNum2);
+	}
+	
+	// accessors for the fields of a node
+	
+	private static int count(ByteBuffer b) {
+		return b.getInt(countPosition);
+	}
+	
+	private static int leafEntry(int i) {
+		return entriesPosition + i * leafEntrySize;
+	}
+	
+	private static int leafKey(ByteBuffer b, int i) {
+		return b.getInt(leafEntry(i));
+	}
+	
+	private static long leafBlockNum(ByteBuffer b, int i) {
+		return b.getLong(leafEntry(i) + Integer.BYTES);
+	}
+	
+	private static int leafCount(ByteBuffer b, int i) {
+		return b.getInt(leafEntry(i) + Integer.BYTES + Long.BYTES);
+	}
+	
+	private static void setLeafEntry(ByteBuffer b, int i, int key, long blockNum, int count) {
+		b.putInt(leafEntry(i), key);
+		b.putLong(leafEntry(i) + Integer.BYTES, blockNum);
+		b.putInt(leafEntry(i) + Integer.BYTES + Long.BYTES, count);
+	}
+	
+	private static int childPosition(int i) {
+		return entriesPosition + i * Long.BYTES;
+	}
+	
+	private static long child(ByteBuffer b, int i) {
+		return b.getLong(childPosition(i));
+	}
+	
+	private static void setChild(ByteBuffer b, int i, long page) {
+		b.putLong(childPosition(i), page);
+	}
+	
+	private int separator(int i) {
+		return separatorsPosition + i * separatorSize;
+	}
+	
+	private int separatorKey(ByteBuffer b, int i) {
+		return b.getInt(separator(i));
+	}
+	
+	private long separatorBlockNum(ByteBuffer b, int i) {
+		return b.getLong(separator(i) + Integer.BYTES);
+	}
+	
+	private void setSeparator(ByteBuffer b, int i, int key, long blockNum) {
+		b.putInt(separator(i), key);
+		b.putLong(separator(i) + Integer.BYTES, blockNum);
+	}
+	
+	// move len bytes within a node, from position from to position to
+	private void move(ByteBuffer b, int from, int to, int len) {
+		copy(b, from, b, to, len);
+	}
+	
+	// copy len bytes from one node to another (or the same one)
+	private void copy(ByteBuffer src, int from, ByteBuffer dst, int to, int len) {
+		if (len <= 0) {
+			return;
+		}
+		ByteBuffer s = src.duplicate();
+		s.position(from);
+		s.get(scratch, 0, len);
+		ByteBuffer d = dst.duplicate();
+		d.position(to);
+		d.put(scratch, 0, len);
+	}
+	
+	// write the root and size to the header block
+	private void writeHeader() {
+		ByteBuffer header = pool.pin(headerBlock).buffer;
+		header.putLong(rootPosition, root);
+		header.putLong(sizePosition, size);
+		header.putLong(epochPosition, epoch);
+		pool.unpin(headerBlock, true);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		long page = findLeaf(Integer.MIN_VALUE, Long.MIN_VALUE);
+		while (page >= 0) {
+			ByteBuffer b = pool.pin(page).buffer;
+			for (int i = 0; i < count(b); i++) {
+				sb.append("key: " + leafKey(b, i) + "\n");
+				sb.append("blockNo: " + leafBlockNum(b, i) + "\n");
+				sb.append("count: " + leafCount(b, i) + "\n");
+				sb.append("\n");
+			}
+			long next = b.getLong(nextPosition);
+			pool.unpin(page, false);
+			page = next;
+		}
+		return sb.toString();
+	}
+}
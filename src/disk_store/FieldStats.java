@@ -0,0 +1,185 @@
+package disk_store;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of the values of an integer field: the number of rows,
+ * the number of distinct values, an equi-depth histogram, and the
+ * correlation between the values and the order of the rows in the
+ * file.  They are used to estimate how many rows a predicate on the
+ * field matches, and how scattered those rows are.
+ *
+ * The histogram has up to numBuckets buckets, each holding about the
+ * same number of rows; for each it keeps the smallest and largest
+ * value, the number of rows with each of them, the number of rows and
+ * the number of distinct values.  A value with many rows fills whole
+ * buckets of its own, and a value at the end of a bucket is counted
+ * exactly, so the estimates for common values are close.  The other
+ * rows of a bucket are taken to be spread evenly over its other
+ * distinct values (for equality) or over its range of values (for
+ * ranges).
+ *
+ * The correlation is 1 when the rows are in order by the field, -1
+ * when they are in reverse order, and near 0 when the values are in no
+ * order.
+ *
+ */
+
+public class FieldStats {
+	
+	static final int numBuckets = 64;
+	
+	private long rowCount;
+	private long distinctCount;
+	private double correlation;
+	private int numUsed; // number of buckets
+	private int[] lo, hi; // smallest and largest value of each bucket
+	private long[] rows, distinct; // rows and distinct values of each bucket
+	private long[] loRows, hiRows; // rows with the smallest and largest value of each bucket
+	
+	/**
+	 * Compute the statistics of the first n values of the given array,
+	 * which are the values of the field in the rows of a table, in the
+	 * order of the rows in the file.  The array is sorted in place.
+	 * @param values
+	 * @param n
+	 */
+	public FieldStats(int[] values, int n) {
+		rowCount = n;
+		correlation = correlation(values, n);
+		Arrays.parallelSort(values, 0, n);
+	
+		numUsed = Math.min(numBuckets, n);
+		lo = new int[numUsed];
+		hi = new int[numUsed];
+		rows = new long[numUsed];
+		distinct = new long[numUsed];
+		loRows = new long[numUsed];
+		hiRows = new long[numUsed];
+		for (int j = 0; j < numUsed; j++) {
+			// bucket j holds the values at positions start to end-1
+			int start = (int) ((long) j * n / numUsed);
+			int end = (int) ((long) (j + 1) * n / numUsed);
+			lo[j] = values[start];
+			hi[j] = values[end - 1];
+			rows[j] = end - start;
+			distinct[j] = 1;
+			for (int i = start + 1; i < end; i++) {
+				if (values[i] != values[i - 1]) {
+					distinct[j]++;
+				}
+			}
+			for (int i = start; i < end && values[i] == lo[j]; i++) {
+				loRows[j]++;
+			}
+			for (int i = end - 1; i >= start && values[i] == hi[j]; i--) {
+				hiRows[j]++;
+			}
+		}
+		distinctCount = (n == 0) ? 0 : 1;
+		for (int i = 1; i < n; i++) {
+			if (values[i] != values[i - 1]) {
+				distinctCount++;
+			}
+		}
+	}
+	
+	/**
+	 * Return the number of rows.
+	 */
+	public long rowCount() {
+		return rowCount;
+	}
+	
+	/**
+	 * Return the number of distinct values.
+	 */
+	public long distinctCount() {
+		return distinctCount;
+	}
+	
+	/**
+	 * Return the correlation between the values and the order of the
+	 * rows, from -1 to 1.
+	 */
+	public double correlation() {
+		return correlation;
+	}
+	
+	/**
+	 * Return the estimated number of rows with the given value.
+	 */
+	public double estimateEquals(int value) {
+		double est = 0;
+		for (int j = 0; j < numUsed; j++) {
+			if (value == lo[j]) {
+				est += loRows[j];
+			} else if (value == hi[j]) {
+				est += hiRows[j];
+			} else if (lo[j] < value && value < hi[j] && distinct[j] > 2) {
+				est += (double) (rows[j] - loRows[j] - hiRows[j]) / (distinct[j] - 2);
+			}
+		}
+		return est;
+	}
+	
+	/**
+	 * Return the estimated number of rows with values from lo to hi,
+	 * inclusive.
+	 */
+	public double estimateRange(int lo, int hi) {
+		if (lo > hi) {
+			return 0;
+		}
+		if (lo == hi) {
+			return estimateEquals(lo);
+		}
+		double est = 0;
+		for (int j = 0; j < numUsed; j++) {
+			if (hi < this.lo[j] || lo > this.hi[j]) {
+				continue;
+			}
+			if (lo <= this.lo[j] && this.hi[j] <= hi) {
+				est += rows[j];
+			} else {
+				// the part of the bucket's range that is in [lo, hi]
+				long overlap = (long) Math.min(hi, this.hi[j]) - Math.max(lo, this.lo[j]) + 1;
+				est += rows[j] * (double) overlap / ((long) this.hi[j] - this.lo[j] + 1);
+			}
+		}
+		return Math.min(est, rowCount);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("rows: " + rowCount + ", distinct: " + distinctCount);
+		sb.append(String.format(", correlation: %.2f%n", correlation));
+		for (int j = 0; j < numUsed; j++) {
+			sb.append("[" + lo[j] + ", " + hi[j] + "] rows: " + rows[j] + ", distinct: " + distinct[j] + "\n");
+		}
+		return sb.toString();
+	}
+	
+	// return the correlation between the values and their positions
+	private static double correlation(int[] values, int n) {
+		if (n < 2) {
+			return 1;
+		}
+		double meanPos = (n - 1) / 2.0;
+		double mean = 0;
+		for (int i = 0; i < n; i++) {
+			mean += values[i];
+		}
+		mean /= n;
+		double sxy = 0, sxx = 0, syy = 0;
+		for (int i = 0; i < n; i++) {
+			double dx = i - meanPos;
+			double dy = values[i] - mean;
+			sxy += dx * dy;
+			sxx += dx * dx;
+			syy += dy * dy;
+		}
+		return (syy == 0) ? 1 : sxy / Math.sqrt(sxx * syy);
+	}
+}
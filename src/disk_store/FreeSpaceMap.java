@@ -0,0 +1,246 @@
+package disk_store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A free-space map for a heap file.  The map has one bit for each block
+ * of the file: 1 means the block is full, or is not a data block, and
+ * 0 means the block has space for at least one record, or does not
+ * exist yet.
+ *
+ * The map is stored in bitmap pages of blockSize*8 bits each.  Page 0 is
+ * block 1 of the file, and page k > 0 is the first block that it covers,
+ * block k*bitsPerPage, so the map grows with the file and never has to
+ * move.  The bits for block 0 and for the pages of the map are 1, so
+ * those blocks are never used for records.  In each page the leftmost
+ * bit comes first, as in class Bitmap.
+ *
+ * The whole map is kept in memory, together with a summary tree over it:
+ * bit j of level l+1 is 1 iff word j of level l is all 1s.  A block with
+ * space is found by following 0 bits down from the top level, so it
+ * takes O(log n) time rather than a scan of the map.
+ *
+ * Changes are written to the file only by flush().  A map read after a
+ * crash may therefore be out of date, and users of the map must check
+ * that a block it reports as having space really does.
+ *
+ */
+
+public class FreeSpaceMap {
+
+	private BlockedFile bf;
+	private int bitsPerPage;
+	private int wordsPerPage;
+
+	// levels.get(0) holds the bits of the map, 64 to a word, with bit 0 of
+	// the map the high-order bit of word 0.  levels.get(l+1) summarizes
+	// levels.get(l), and the last level has a single word.
+	private ArrayList<long[]> levels;
+	private int numPages;
+	private BitSet dirtyPages;
+
+	// create an empty map for the given file
+	private FreeSpaceMap(BlockedFile bf) {
+		this.bf = bf;
+		bitsPerPage = bf.blockSize() * Byte.SIZE;
+		wordsPerPage = bf.blockSize() / Long.BYTES;
+		levels = new ArrayList<>();
+		levels.add(new long[0]);
+		numPages = 0;
+		dirtyPages = new BitSet();
+	}
+
+	/**
+	 * Create the map of a new heap file.  Block 0 of the file must
+	 * already exist; page 0 of the map is written to block 1 right away.
+	 * @param bf a blocked file
+	 * @return the new map
+	 */
+	public static FreeSpaceMap create(BlockedFile bf) {
+		FreeSpaceMap map = new FreeSpaceMap(bf);
+		map.addPage();
+		map.setFull(0, true);	// block 0 holds metadata
+		map.writePage(0);
+		return map;
+	}
+
+	/**
+	 * Read the map of an existing heap file.
+	 * @param bf a blocked file
+	 * @return the map
+	 */
+	public static FreeSpaceMap open(BlockedFile bf) {
+		FreeSpaceMap map = new FreeSpaceMap(bf);
+		BlockBuffer buf = bf.getBuffer();
+		long[] words = new long[0];
+		int k = 0;
+		while (pageBlock(k, map.bitsPerPage) <= bf.getLastBlockIndex()) {
+			bf.read(pageBlock(k, map.bitsPerPage), buf);
+			words = Arrays.copyOf(words, (k + 1) * map.wordsPerPage);
+			for (int w = 0; w < map.wordsPerPage; w++) {
+				words[k * map.wordsPerPage + w] = buf.buffer.getLong(w * Long.BYTES);
+			}
+			k++;
+		}
+		map.levels.set(0, words);
+		map.numPages = k;
+		map.buildSummary();
+		return map;
+	}
+
+	// return the block that holds page k of the map
+	private static long pageBlock(int k, int bitsPerPage) {
+		return (k == 0) ? 1 : (long) k * bitsPerPage;
+	}
+
+	/**
+	 * Return true if the block with the given number is a page of the
+	 * map rather than a data block.
+	 */
+	public boolean isMapBlock(long blockNum) {
+		return blockNum == 1 || (blockNum > 0 && blockNum % bitsPerPage == 0);
+	}
+
+	/**
+	 * Return the number of the first block whose bit is 0, or -1 if
+	 * every block covered by the map is full.  The block may be past
+	 * the end of the file.
+	 */
+	public long firstFree() {
+		int top = levels.size() - 1;
+		long[] words = levels.get(top);
+		if (words.length == 0 || words[0] == -1L) {
+			return -1;
+		}
+		long i = Long.numberOfLeadingZeros(~words[0]);
+		for (int l = top - 1; l >= 0; l--) {
+			i = i * Long.SIZE + Long.numberOfLeadingZeros(~levels.get(l)[(int) i]);
+		}
+		return i;
+	}
+
+	/**
+	 * Return true if the block with the given number is marked full.
+	 */
+	public boolean isFull(long blockNum) {
+		long[] words = levels.get(0);
+		int w = (int) (blockNum >>> 6);
+		if (w >= words.length) {
+			return false;
+		}
+		return (words[w] & mask(blockNum)) != 0;
+	}
+
+	/**
+	 * Mark the block with the given number as full or as having space.
+	 */
+	public void setFull(long blockNum, boolean full) {
+		while (blockNum >= (long) numPages * bitsPerPage) {
+			addPage();
+		}
+		dirtyPages.set((int) (blockNum / bitsPerPage));
+
+		// set the bit, then update the summary levels as long as
+		// the word that the bit is in changes between full and not full
+		long i = blockNum;
+		for (int l = 0; l < levels.size(); l++) {
+			long[] words = levels.get(l);
+			int w = (int) (i >>> 6);
+			boolean wasFull = words[w] == -1L;
+			if (full) {
+				words[w] |= mask(i);
+			} else {
+				words[w] &= ~mask(i);
+			}
+			if (wasFull == (words[w] == -1L)) {
+				break;
+			}
+			i = w;
+		}
+	}
+
+	/**
+	 * Return the number to use for a new data block at the end of the
+	 * file.  If the next block of the file is where the next page of the
+	 * map belongs, that page is added to the file first.
+	 */
+	public long newBlock() {
+		long blockNum = bf.getLastBlockIndex() + 1;
+		if (isMapBlock(blockNum)) {
+			int k = (int) (blockNum / bitsPerPage);
+			while (numPages <= k) {
+				addPage();
+			}
+			writePage(k);
+			blockNum++;
+		}
+		return blockNum;
+	}
+
+	/**
+	 * Write the pages of the map that have changed to the file.
+	 */
+	public void flush() {
+		for (int k = dirtyPages.nextSetBit(0); k >= 0; k = dirtyPages.nextSetBit(k + 1)) {
+			writePage(k);
+		}
+	}
+
+	// add a page to the end of the map; its own block is marked full
+	private void addPage() {
+		int k = numPages;
+		levels.set(0, Arrays.copyOf(levels.get(0), (k + 1) * wordsPerPage));
+		numPages++;
+		buildSummary();
+		setFull(pageBlock(k, bitsPerPage), true);
+	}
+
+	// write page k of the map to the file
+	private void writePage(int k) {
+		BlockBuffer buf = bf.getBuffer();
+		long[] words = levels.get(0);
+		for (int w = 0; w < wordsPerPage; w++) {
+			buf.buffer.putLong(w * Long.BYTES, words[k * wordsPerPage + w]);
+		}
+		bf.write(pageBlock(k, bitsPerPage), buf);
+		dirtyPages.clear(k);
+	}
+
+	// rebuild all the summary levels from level 0
+	private void buildSummary() {
+		long[] words = levels.get(0);
+		while (levels.size() > 1) {
+			levels.remove(levels.size() - 1);
+		}
+		while (words.length > 1) {
+			// bits past the end of the level below are 1, so that they
+			// are never followed
+			long[] summary = new long[(words.length + Long.SIZE - 1) / Long.SIZE];
+			Arrays.fill(summary, -1L);
+			for (int w = 0; w < words.length; w++) {
+				if (words[w] != -1L) {
+					summary[w >>> 6] &= ~mask(w);
+				}
+			}
+			levels.add(summary);
+			words = summary;
+		}
+	}
+
+	// return the mask of bit i within its word
+	private static long mask(long i) {
+		return 1L << (Long.SIZE - 1 - (i & (Long.SIZE - 1)));
+	}
+
+	// return the first bits of the map as a string
+	@Override
+	public String toString() {
+		Bitmap first = new Bitmap(Math.min(12, bitsPerPage / Byte.SIZE));
+		for (int i = 0; i < first.size(); i++) {
+			first.setBit(i, isFull(i));
+		}
+		return first.toString();
+	}
+}
@@ -1,39 +1,337 @@
 package disk_store;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * A hash index.  
- * 
+ * A hash index.  Duplicate search key values are allowed,
+ * but not duplicate index table entries.
+ *
+ * Each entry is a key/blockNum pair and the number of times it was
+ * inserted, kept in parallel arrays, so no objects are created for
+ * entries.  The entries of a key are linked in a chain (through the
+ * next and prev arrays), so a lookup walks only the key's own entries.
+ * An entry is free iff its count is 0; free entries are kept on a
+ * list, to be used again.
+ *
+ * Entries are found through two open-addressing hash tables of entry
+ * numbers, with linear probing: keySlots holds the first entry of the
+ * chain of each key, placed by the hash of the key, and pairSlots holds
+ * every entry, placed by the hash of its key and blockNum.  An insert
+ * or delete finds its pair in pairSlots, so its cost does not grow with
+ * the number of entries that share the key.
+ *
+ * Deletion shifts later entries of a run back into the freed slot, so
+ * there are no tombstones.  The tables double in size when they are
+ * more than maxLoad full.
+ *
  */
 
 public class HashIndex implements DBIndex {
-
+	
+	private static final int initialCapacity = 16;	// must be a power of 2
+	private static final double maxLoad = 0.5;
+	
+	// the entries, by entry number
+	private int[] keys;
+	private long[] blockNums;
+	private int[] counts;
+	private int[] next, prev;	// neighbors in the key's chain, or -1
+	private int top;			// entries from top on have never been used
+	private int free;			// first free entry below top, or -1
+	
+	// hash tables of entry numbers, -1 for an empty slot
+	private int[] keySlots;		// first entry of each key's chain, by key
+	private int[] pairSlots;	// every entry, by key and blockNum
+	private int mask;		// capacity - 1
+	private int shift;		// 32 - log2(capacity)
+	private int used;		// number of entries in use
+	private int size;		// number of entries, counting duplicates
+	
 	/**
 	 * Create an new index.
 	 */
 	public HashIndex() {
-		throw new UnsupportedOperationException();
+		allocate(initialCapacity);
 	}
 	
 	@Override
-	public List<Integer> lookup(int key) {
-		throw new UnsupportedOperationException();
+	public List<Long> lookup(int key) {
+		ArrayList<Long> blockNoList = new ArrayList<>();
+		for (int e = keySlots[keySlot(key)]; e != -1; e = next[e]) {
+			blockNoList.add(blockNums[e]);
+		}
+		return blockNoList;
+	}
+	
+	/**
+	 * Return the first block number associated with the given search
+	 * key, or -1 if the key does not appear in the index.  Unlike
+	 * lookup(), this creates no objects, so it is the one to use for
+	 * a key that is a superkey.
+	 * @param key value of a search key
+	 * @return
+	 */
+	public long lookupFirst(int key) {
+		int e = keySlots[keySlot(key)];
+		return (e == -1) ? -1 : blockNums[e];
 	}
 	
 	@Override
-	public void insert(int key, int blockNum) {
-		throw new UnsupportedOperationException();
+	public void insert(int key, long blockNum) {
+		int i = pairSlot(key, blockNum);
+		if (pairSlots[i] != -1) {
+			counts[pairSlots[i]]++;
+			size++;
+			return;
+		}
+		if (used + 1 > maxLoad * pairSlots.length) {
+			resize(pairSlots.length * 2);
+			i = pairSlot(key, blockNum);
+		}
+		int e = newEntry(key, blockNum, 1);
+		pairSlots[i] = e;
+		link(e);
+		size++;
 	}
-
+	
 	@Override
-	public void delete(int key, int blockNum) {
-		throw new UnsupportedOperationException();
+	public void delete(int key, long blockNum) {
+		int i = pairSlot(key, blockNum);
+		int e = pairSlots[i];
+		if (e == -1) {
+			return;
+		}
+		size--;
+		if (--counts[e] > 0) {
+			return;
+		}
+		shiftBack(pairSlots, i);
+	
+		// take the entry out of its key's chain, and free it
+		if (prev[e] != -1) {
+			next[prev[e]] = next[e];
+		} else {
+			int k = keySlot(key);
+			if (next[e] != -1) {
+				keySlots[k] = next[e];
+			} else {
+				shiftBack(keySlots, k);
+			}
+		}
+		if (next[e] != -1) {
+			prev[next[e]] = prev[e];
+		}
+		next[e] = free;
+		free = e;
+		used--;
+	}
+	
+	/**
+	 * Return the number of entries in the index
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+	
+	// return the number of distinct key/blockNum pairs in the index
+	int numEntries() {
+		return used;
+	}
+	
+	// copy the entries of the index, in no particular order, to the
+	// given arrays, which must have room for numEntries() entries
+	void entries(int[] keys, long[] blockNums, int[] counts) {
+		int j = 0;
+		for (int e = 0; e < top; e++) {
+			if (this.counts[e] != 0) {
+				keys[j] = this.keys[e];
+				blockNums[j] = this.blockNums[e];
+				counts[j] = this.counts[e];
+				j++;
+			}
+		}
+	}
+	
+	/**
+	 * Build the index from the first n entries of the given arrays,
+	 * with no key/blockNum pair repeated; counts[i] is the number of
+	 * times pair i was inserted.  The tables are sized for all the
+	 * entries up front, so they are never resized.  The index must be
+	 * empty.
+	 */
+	public void load(int[] keys, long[] blockNums, int[] counts, int n) {
+		if (size != 0) {
+			throw new IllegalStateException("can only load an empty index");
+		}
+		int capacity = initialCapacity;
+		while (n > maxLoad * capacity) {
+			capacity *= 2;
+		}
+		allocate(capacity);
+		// the entries are linked at the front of their chains, so they
+		// are taken last to first to keep each chain in the given order
+		for (int j = n - 1; j >= 0; j--) {
+			int e = newEntry(keys[j], blockNums[j], counts[j]);
+			int i = pairHome(keys[j], blockNums[j]);
+			while (pairSlots[i] != -1) {
+				i = (i + 1) & mask;
+			}
+			pairSlots[i] = e;
+			link(e);
+			size += counts[j];
+		}
+	}
+	
+	// return the home slot of a key (Fibonacci hashing)
+	private int home(int key) {
+		return (key * 0x9E3779B9) >>> shift;
+	}
+	
+	// return the home slot of a key/blockNum pair
+	private int pairHome(int key, long blockNum) {
+		long h = (blockNum + key * 0x9E3779B97F4A7C15L) * 0xC2B2AE3D27D4EB4FL;
+		return (int) (h >>> (shift + Integer.SIZE));
+	}
+	
+	// return the slot of keySlots that holds the chain of the given key,
+	// or the empty slot where it would go
+	private int keySlot(int key) {
+		int i = home(key);
+		while (keySlots[i] != -1 && keys[keySlots[i]] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+	
+	// return the slot of pairSlots that holds the entry of the given
+	// pair, or the empty slot where it would go
+	private int pairSlot(int key, long blockNum) {
+		int i = pairHome(key, blockNum);
+		while (pairSlots[i] != -1 && (keys[pairSlots[i]] != key || blockNums[pairSlots[i]] != blockNum)) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+	
+	// return the number of an unused entry, set to the given values
+	private int newEntry(int key, long blockNum, int count) {
+		int e;
+		if (free != -1) {
+			e = free;
+			free = next[e];
+		} else {
+			e = top++;
+		}
+		keys[e] = key;
+		blockNums[e] = blockNum;
+		counts[e] = count;
+		used++;
+		return e;
+	}
+	
+	// link entry e in at the front of its key's chain
+	private void link(int e) {
+		int k = keySlot(keys[e]);
+		next[e] = keySlots[k];
+		prev[e] = -1;
+		if (keySlots[k] != -1) {
+			prev[keySlots[k]] = e;
+		}
+		keySlots[k] = e;
+	}
+	
+	// empty slot i of the given table (keySlots or pairSlots), and move
+	// later entries of its run back so that every entry can still be
+	// reached from its home slot
+	private void shiftBack(int[] slots, int i) {
+		slots[i] = -1;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			int e = slots[j];
+			if (e == -1) {
+				break;
+			}
+			// the entry at j can move to i only if its home slot is
+			// not in the cyclic range (i, j]
+			int h = (slots == keySlots) ? home(keys[e]) : pairHome(keys[e], blockNums[e]);
+			if (((j - h) & mask) >= ((j - i) & mask)) {
+				slots[i] = e;
+				slots[j] = -1;
+				i = j;
+			}
+		}
+	}
+	
+	// create empty tables and entry arrays for the given capacity, a
+	// power of 2
+	private void allocate(int capacity) {
+		int numEntries = (int) (maxLoad * capacity);
+		keys = new int[numEntries];
+		blockNums = new long[numEntries];
+		counts = new int[numEntries];
+		next = new int[numEntries];
+		prev = new int[numEntries];
+		top = 0;
+		free = -1;
+		used = 0;
+		allocateTables(capacity);
+	}
+	
+	// create empty hash tables with the given capacity, a power of 2
+	private void allocateTables(int capacity) {
+		keySlots = new int[capacity];
+		pairSlots = new int[capacity];
+		Arrays.fill(keySlots, -1);
+		Arrays.fill(pairSlots, -1);
+		mask = capacity - 1;
+		shift = Integer.SIZE - Integer.numberOfTrailingZeros(capacity);
+	}
+	
+	// grow the entry arrays and rehash all entries into tables with the
+	// given capacity.  Entries keep their numbers, so the chains stay as
+	// they are; only the first entry of each chain goes into keySlots
+	private void resize(int capacity) {
+		int numEntries = (int) (maxLoad * capacity);
+		keys = Arrays.copyOf(keys, numEntries);
+		blockNums = Arrays.copyOf(blockNums, numEntries);
+		counts = Arrays.copyOf(counts, numEntries);
+		next = Arrays.copyOf(next, numEntries);
+		prev = Arrays.copyOf(prev, numEntries);
+		allocateTables(capacity);
+		for (int e = 0; e < top; e++) {
+			if (counts[e] != 0) {
+				int i = pairHome(keys[e], blockNums[e]);
+				while (pairSlots[i] != -1) {
+					i = (i + 1) & mask;
+				}
+				pairSlots[i] = e;
+				if (prev[e] == -1) {
+					i = home(keys[e]);
+					while (keySlots[i] != -1) {
+						i = (i + 1) & mask;
+					}
+					keySlots[i] = e;
+				}
+			}
+		}
 	}
 	
 	@Override
 	public String toString() {
-		throw new UnsupportedOperationException();
+		StringBuilder sb = new StringBuilder();
+		for (int e = 0; e < top; e++) {
+			if (counts[e] != 0) {
+				sb.append("key: " + keys[e] + "\n");
+				sb.append("blockNo: " + blockNums[e] + "\n");
+				sb.append("count: " + counts[e] + "\n");
+				sb.append("\n");
+			}
+		}
+		return sb.toString();
 	}
 }
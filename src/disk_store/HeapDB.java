@@ -1,8 +1,25 @@
 package disk_store;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A heap file implementation of the DB interface. Record layout within blocks
@@ -22,6 +39,14 @@ public class HeapDB implements DB, Iterable<Record> {
 	// - next 4 bytes: an int giving version number
 	// - next 4 bytes: an int giving number of bytes in schema
 	// - next bytes: schema for this database
+	// - next 8 bytes: a long giving the epoch, which changes every time
+	// the database is opened (see IndexSnapshot)
+	// - next 4 bytes: an int giving the number of indexes
+	// - next bytes: for each index, an int giving the field number and an
+	// int giving the index type (1 = disk B+tree, kept in the file
+	// filename.fieldname.idx; 2 = hash; 3 = ordered). Hash and ordered
+	// indexes are in memory, and are saved in the file filename.snapshot
+	// when the database is closed
 	// - block 1 is used as a block bitmap,
 	// 0 block has space or block does not exist yet.
 	// blockNum <= bf.lastBlockIndex --> block exists
@@ -29,6 +54,9 @@ public class HeapDB implements DB, Iterable<Record> {
 	// 1 block is full.
 	// In the bitmap, the leftmost bit is
 	// bit 0, and corresponds to block 0.
+	// - the bitmap block covers blockSize*8 blocks. When the file grows
+	// past that, block k*blockSize*8 holds the bitmap for blocks
+	// k*blockSize*8 and on (see FreeSpaceMap).
 
 	// block layout:
 	// - each block contains a record bit map followed by the records
@@ -37,10 +65,10 @@ public class HeapDB implements DB, Iterable<Record> {
 	//
 
 	// TODO
-	// - add a modify() method and test it
 	// - create a HashDB implementation of the DB interface
 
 	private BlockedFile bf;
+	private String filename;
 	private Schema schema;
 
 	// metadata block
@@ -50,15 +78,19 @@ public class HeapDB implements DB, Iterable<Record> {
 	private static final int fileTypePosition = 0;
 	private static final int versionPosition = fileTypePosition + Integer.BYTES;
 	private static final int schemaPosition = versionPosition + Integer.BYTES;
+	private static final int diskIndexType = 1;
+	private static final int hashIndexType = 2;
+	private static final int orderedIndexType = 3;
+	private long epoch;
 
 	// bitmap block
 	private static final int bitmapBlock = 1; // index of block containing block bitmap
-	private Bitmap blockMap; // the bitmap object
-	private BlockBuffer blockmapBuffer; // the buffer used for reading the block bitmap
+	private FreeSpaceMap freeMap; // the block bitmap, cached in memory
 
-	// buffer for reading/writing records, and its corresponding record bitmap
-	private BlockBuffer buffer;
-	private Bitmap recMap;
+	// all blocks are read and written through the buffer pool. A block is
+	// pinned while in use; recordMap() gives the record bitmap of a pinned block.
+	static final int defaultPoolSize = 256; // default number of buffer pool frames
+	private BufferPool pool;
 
 	// block layout (see details above)
 	private int recSize; // number of bytes per record
@@ -69,12 +101,61 @@ public class HeapDB implements DB, Iterable<Record> {
 	// with the given number
 	DBIndex[] indexes;
 
+	// the primary key always has an index, which insert uses to reject
+	// duplicate keys. A Bloom filter of the keys, if there is one, lets
+	// insert skip the index for most new keys
+	private int keyNum;
+	private BloomFilter keyFilter;
+	private double keyFilterRate;
+
+	// in append mode, an insert of a key larger than any in the database
+	// (maxKey) goes straight into the tail block, which stays pinned
+	// until it is full, and is marked full in the block bitmap so that
+	// other inserts leave it alone
+	private boolean appendMode;
+	private boolean hasMaxKey;
+	private int maxKey;
+	private long tailBlockNum = -1;
+	private BlockBuffer tailBuffer;
+	private int tailNext; // slot to try first for the next append
+
+	// scans that build an index split the data blocks into ranges of this
+	// many blocks, and scan up to scanParallelism ranges at a time
+	private static final int blocksPerScanTask = 256;
+	private int scanParallelism = ForkJoinPool.getCommonPoolParallelism();
+
+	// statistics of the integer fields (null for other fields), which a
+	// lookup on an indexed field uses to choose between the index and a
+	// scan (see plan()). They are computed only by analyze(), and are
+	// null until it is called
+	private FieldStats[] stats;
+	private long changesSinceAnalyze;
+	private boolean costBasedAccess = true;
+	// the cost of reading a block through an index, relative to the
+	// cost of a block read by a scan. The index reads its blocks in
+	// ascending order, skipping those without matches, so a read costs
+	// only a little more than a sequential one
+	static final double randomReadCost = 1.5;
+
+	// the smallest and largest value of each integer field in each data
+	// block, which lets scans for a range of values skip blocks (see
+	// ZoneMap)
+	private ZoneMap zones;
+
+	// the number of data blocks in the file: all blocks after the bitmap
+	// block except those of the block bitmap
+	private long numDataBlocks;
+
 	// private constructor
-	private HeapDB(BlockedFile bf, Schema schema) {
+	private HeapDB(BlockedFile bf, String filename, Schema schema, int poolSize) {
 		this.bf = bf;
+		this.filename = filename;
 		this.schema = schema;
+		pool = new BufferPool(bf, poolSize);
 		setRecordLayout();
 		indexes = new DBIndex[schema.size()];
+		keyNum = schema.getFieldIndex(schema.getKey());
+		zones = new ZoneMap(schema);
 	}
 
 	/**
@@ -84,8 +165,35 @@ public class HeapDB implements DB, Iterable<Record> {
 	 * @param schema
 	 */
 	public HeapDB(String filename, Schema schema) {
-		bf = new BlockedFile(filename);
+		this(filename, schema, false);
+	}
+
+	/**
+	 * Create a new, empty database with the given schema, optionally
+	 * using a memory-mapped file.
+	 * 
+	 * @param filename
+	 * @param schema
+	 * @param mapped true if the database file is to be memory mapped
+	 */
+	public HeapDB(String filename, Schema schema, boolean mapped) {
+		this(filename, schema, mapped, defaultPoolSize);
+	}
+
+	/**
+	 * Create a new, empty database with the given schema and buffer
+	 * pool size, optionally using a memory-mapped file.
+	 * 
+	 * @param filename
+	 * @param schema
+	 * @param mapped true if the database file is to be memory mapped
+	 * @param poolSize number of frames in the buffer pool
+	 */
+	public HeapDB(String filename, Schema schema, boolean mapped, int poolSize) {
+		bf = new BlockedFile(filename, mapped);
+		this.filename = filename;
 		this.schema = schema;
+		pool = new BufferPool(bf, poolSize);
 
 		// block 0: metadata block
 		BlockBuffer metaBuffer = bf.getBuffer();
@@ -94,24 +202,24 @@ public class HeapDB implements DB, Iterable<Record> {
 		int temp = metaBuffer.getInt(fileTypePosition);
 		schema.serialize(metaBuffer.buffer, schemaPosition);
 		temp = metaBuffer.getInt(versionPosition);
+		metaBuffer.buffer.putLong(epochPosition(), 0);
+		metaBuffer.putInt(indexListPosition(), 0); // no indexes yet
 		bf.write(metadataBlock, metaBuffer);
 
 		// block 1: bitmap block
-		blockmapBuffer = bf.getBuffer();
-		blockMap = new Bitmap(blockmapBuffer.buffer.array());
-		blockMap.clear();
-		blockMap.setBit(bitmapBlock, true); // dw
-		blockMap.setBit(metadataBlock, true); // dw
-		bf.write(bitmapBlock, blockmapBuffer);
+		freeMap = FreeSpaceMap.create(bf);
 
-		setRecordLayout();
+		// a snapshot left by an old database of the same name must not
+		// be taken for one of this database
+		new File(snapshotFilename()).delete();
 
-		// create a buffer for reading/writing records;
-		buffer = bf.getBuffer();
-		recMap = new Bitmap(buffer.buffer.array(), recMapSize);
+		setRecordLayout();
 
-		// initialize the DB index array
+		// initialize the DB index array, with a hash index on the key
 		indexes = new DBIndex[schema.size()];
+		keyNum = schema.getFieldIndex(schema.getKey());
+		setIndex(keyNum, new HashIndex());
+		zones = new ZoneMap(schema);
 	}
 
 	/**
@@ -121,8 +229,32 @@ public class HeapDB implements DB, Iterable<Record> {
 	 * @return
 	 */
 	public static HeapDB open(String filename) {
+		return open(filename, false);
+	}
+
+	/**
+	 * Open an existing heap database, optionally using a memory-mapped file.
+	 * 
+	 * @param filename
+	 * @param mapped true if the database file is to be memory mapped
+	 * @return
+	 */
+	public static HeapDB open(String filename, boolean mapped) {
+		return open(filename, mapped, defaultPoolSize);
+	}
+
+	/**
+	 * Open an existing heap database with the given buffer pool size,
+	 * optionally using a memory-mapped file.
+	 * 
+	 * @param filename
+	 * @param mapped true if the database file is to be memory mapped
+	 * @param poolSize number of frames in the buffer pool
+	 * @return
+	 */
+	public static HeapDB open(String filename, boolean mapped, int poolSize) {
 		// open the file and read the schema
-		BlockedFile bf = BlockedFile.open(filename);
+		BlockedFile bf = BlockedFile.open(filename, mapped);
 
 		// read the metadata block to get the schema
 		BlockBuffer metaBuffer = bf.getBuffer();
@@ -133,13 +265,58 @@ public class HeapDB implements DB, Iterable<Record> {
 		Schema schema = Schema.deserialize(metaBuffer.buffer, schemaPosition);
 
 		// create the database
-		HeapDB db = new HeapDB(bf, schema);
+		HeapDB db = new HeapDB(bf, filename, schema, poolSize);
+
+		// read the block bitmap
+		db.freeMap = FreeSpaceMap.open(bf);
+		for (long blockNum = bitmapBlock + 1; blockNum <= bf.getLastBlockIndex(); blockNum++) {
+			if (!db.freeMap.isMapBlock(blockNum)) {
+				db.numDataBlocks++;
+			}
+		}
+
+		// reattach the indexes. Disk indexes and the snapshot of the
+		// in-memory indexes are used if they were closed at the current
+		// epoch, and otherwise the indexes are rebuilt from the heap
+		db.epoch = metaBuffer.buffer.getLong(db.epochPosition());
+		int pos = db.indexListPosition();
+		int numIndexes = metaBuffer.getInt(pos);
+		int[] types = new int[schema.size()];
+		boolean inMemory = false;
+		for (int i = 0; i < numIndexes; i++) {
+			int fieldNum = metaBuffer.getInt(pos + Integer.BYTES * (2 * i + 1));
+			int indexType = metaBuffer.getInt(pos + Integer.BYTES * (2 * i + 2));
+			if (indexType == diskIndexType) {
+				db.indexes[fieldNum] = db.openDiskIndex(fieldNum);
+			} else {
+				db.indexes[fieldNum] = newIndex(indexType);
+				types[fieldNum] = indexType;
+				inMemory = true;
+			}
+		}
+		if (inMemory && !IndexSnapshot.read(db.snapshotFilename(), db.epoch, db.indexes, types)) {
+			for (int fieldNum = 0; fieldNum < types.length; fieldNum++) {
+				if (types[fieldNum] != 0) {
+					DBIndex index = newIndex(types[fieldNum]);
+					db.initializeIndex(fieldNum, index);
+					db.indexes[fieldNum] = index;
+				}
+			}
+		}
 
-		// create the bitmap buffer and record buffers
-		db.blockmapBuffer = bf.getBuffer();
-		db.blockMap = new Bitmap(db.blockmapBuffer.buffer.array());
-		db.buffer = bf.getBuffer();
-		db.recMap = new Bitmap(db.buffer.buffer.array(), db.recMapSize);
+		// start a new epoch, so that the snapshot is not used again
+		// unless it is rewritten by close()
+		db.epoch++;
+		metaBuffer.buffer.putLong(db.epochPosition(), db.epoch);
+		bf.write(metadataBlock, metaBuffer);
+
+		// a database written before the key always had an index gets
+		// one now
+		if (db.indexes[db.keyNum] == null) {
+			DBIndex index = new HashIndex();
+			db.initializeIndex(db.keyNum, index);
+			db.setIndex(db.keyNum, index);
+		}
 
 		return db;
 	}
@@ -148,9 +325,113 @@ public class HeapDB implements DB, Iterable<Record> {
 	 * Close the database.
 	 */
 	public void close() {
+		releaseTail();
+		freeMap.flush();
+		pool.close();
+
+		// disk indexes are closed; the others are saved in a snapshot
+		int[] types = new int[indexes.length];
+		boolean inMemory = false;
+		for (int fieldNum = 0; fieldNum < indexes.length; fieldNum++) {
+			if (indexes[fieldNum] instanceof DiskBTreeIndex) {
+				((DiskBTreeIndex) indexes[fieldNum]).setEpoch(epoch);
+				((DiskBTreeIndex) indexes[fieldNum]).close();
+			} else if (indexType(indexes[fieldNum]) != 0) {
+				types[fieldNum] = indexType(indexes[fieldNum]);
+				inMemory = true;
+			}
+		}
+		if (inMemory) {
+			IndexSnapshot.write(snapshotFilename(), epoch, indexes, types);
+		} else {
+			new File(snapshotFilename()).delete();
+		}
 		bf.close();
 	}
 
+	/**
+	 * Return the schema of the database.
+	 */
+	public Schema getSchema() {
+		return schema;
+	}
+
+	// return the byte position in the metadata block of the epoch
+	private int epochPosition() {
+		return schemaPosition + schema.serializedSize();
+	}
+
+	// return the byte position in the metadata block of the list of
+	// indexes
+	private int indexListPosition() {
+		return epochPosition() + Long.BYTES;
+	}
+
+	// open the disk index of the given field, or rebuild it if it was
+	// not closed at the current epoch, when it may be out of date
+	private DiskBTreeIndex openDiskIndex(int fieldNum) {
+		DiskBTreeIndex index = DiskBTreeIndex.open(indexFilename(fieldNum));
+		if (index.getEpoch() != epoch) {
+			index.close();
+			index = new DiskBTreeIndex(indexFilename(fieldNum));
+			initializeIndex(fieldNum, index);
+		}
+		return index;
+	}
+
+	// return the name of the snapshot file of the in-memory indexes
+	private String snapshotFilename() {
+		return filename + ".snapshot";
+	}
+
+	// return the type of an index, as recorded in the metadata block,
+	// or 0 if the index is not recorded
+	private static int indexType(DBIndex index) {
+		if (index instanceof DiskBTreeIndex) {
+			return diskIndexType;
+		} else if (index instanceof HashIndex) {
+			return hashIndexType;
+		} else if (index instanceof BTreeIndex) {
+			return orderedIndexType;
+		}
+		return 0;
+	}
+
+	// return a new, empty in-memory index of the given type
+	private static DBIndex newIndex(int indexType) {
+		if (indexType == hashIndexType) {
+			return new HashIndex();
+		} else if (indexType == orderedIndexType) {
+			return new BTreeIndex();
+		}
+		throw new IllegalStateException("unknown index type " + indexType);
+	}
+
+	// return the name of the file for a disk index on the given field
+	private String indexFilename(int fieldNum) {
+		return filename + "." + schema.getName(fieldNum) + ".idx";
+	}
+
+	// rewrite the list of indexes in the metadata block
+	private void writeIndexList() {
+		BlockBuffer metaBuffer = bf.getBuffer();
+		bf.read(metadataBlock, metaBuffer);
+		int pos = indexListPosition();
+		int numIndexes = 0;
+		for (int fieldNum = 0; fieldNum < indexes.length; fieldNum++) {
+			if (indexType(indexes[fieldNum]) != 0) {
+				numIndexes++;
+				if (pos + Integer.BYTES * (2 * numIndexes + 1) > bf.blockSize()) {
+					throw new IllegalStateException("Error: no room in the metadata block for another index");
+				}
+				metaBuffer.putInt(pos + Integer.BYTES * (2 * numIndexes - 1), fieldNum);
+				metaBuffer.putInt(pos + Integer.BYTES * (2 * numIndexes), indexType(indexes[fieldNum]));
+			}
+		}
+		metaBuffer.putInt(pos, numIndexes);
+		bf.write(metadataBlock, metaBuffer);
+	}
+
 	// compute the layout of records in blocks
 	private void setRecordLayout() {
 		// Each block that is used to store records will contain:
@@ -172,131 +453,630 @@ public class HeapDB implements DB, Iterable<Record> {
 		return recMapSize + recSize * recNumber;
 	}
 
+	// return the record bitmap of a block held in the given buffer
+	private Bitmap recordMap(BlockBuffer buffer) {
+		return new Bitmap(buffer.buffer, recMapSize);
+	}
+
 	/**
-	 * Return the number of records in the database. Note: this does a linear
-	 * search, so is slow. It would be better to keep an instance variable that
+	 * Return the number of records in the database. Note: this reads every
+	 * block, so is slow. It would be better to keep an instance variable that
 	 * tracks the current size.
 	 * 
 	 * @return
 	 */
 	public int size() {
 		int cnt = 0;
-		for (Record rec : this) {
-			cnt++;
+		for (long blockNum = bitmapBlock + 1; blockNum <= bf.getLastBlockIndex(); blockNum++) {
+			if (freeMap.isMapBlock(blockNum)) {
+				continue;
+			}
+			cnt += recordMap(pool.pin(blockNum)).cardinality();
+			pool.unpin(blockNum, false);
 		}
 		return cnt;
 	}
 
 	@Override
 	public boolean insert(Record rec) {
-		// make sure no record with rec's key is already in the database
-		if (lookup(rec.getKey()) != null) {
+		// in append mode, a key larger than any in the database needs
+		// neither a lookup nor a search for space
+		int key = rec.getKey();
+		if (appendMode && (!hasMaxKey || key > maxKey)) {
+			append(rec, key);
+			changesSinceAnalyze++;
+			return true;
+		}
+
+		// make sure no record with rec's key is already in the database.
+		// A key the filter has never seen needs no lookup
+		if ((keyFilter == null || keyFilter.mightContain(key)) && locate(key) >= 0) {
 			return false;
 		}
 
-		// iterate over valid blocks and see if there is space
-		bf.read(bitmapBlock, blockmapBuffer); // read the bitmap block
-		int blockNum = blockMap.firstZero(); // get first block with space.
+		// find a block with space, using the block bitmap
+		long blockNum = freeMap.firstFree();
 		// check that blockNum is a valid block
-		if (blockNum > 1 && blockNum <= bf.getLastBlockIndex()) {
+		while (blockNum > 1 && blockNum <= bf.getLastBlockIndex()) {
 			// block i is valid, so see if it has room for a new record
-			bf.read(blockNum, buffer);
+			BlockBuffer buffer = pool.pin(blockNum);
+			Bitmap recMap = recordMap(buffer);
 			int recNum = recMap.firstZero();
 			if (recNum >= 0) {
-				// write record to buffer, set bit in bit map, write to file
+				// write record to buffer, set bit in bit map, and mark the block changed
 				int loc = recordLocation(recNum);
 				rec.serialize(buffer.buffer, loc);
 				recMap.setBit(recNum, true);
-				bf.write(blockNum, buffer);
-				// if block is now full, update blockMap to no space and save blockMap to disk.
-				if (recMap.firstZero() < 0) {
-					blockMap.setBit(blockNum, true);
-					bf.write(bitmapBlock, blockmapBuffer);
+				zones.add(blockNum, rec);
+				boolean full = recMap.firstZero() < 0;
+				pool.unpin(blockNum, true);
+				// if block is now full, update the block bitmap to no space.
+				if (full) {
+					freeMap.setFull(blockNum, true);
 				}
 				// index maintenance
 				// YOUR CODE HERE
 				// ordered indexes
+				long rid = RecordId.of(blockNum, recNum);
 				for (int i = 0; i < indexes.length; i++) {
 					if (indexes[i] != null) {
 						// maintain index[i],
-						 indexes[i].insert(((IntField) rec.get(i)).getValue(), blockNum); // call insert method on index
+						 indexes[i].insert(((IntField) rec.get(i)).getValue(), rid); // call insert method on index
 					}
 				}
+				addToKeyFilter(key);
+				changesSinceAnalyze++;
 				return true;
 
 			}
+			pool.unpin(blockNum, false);
+			// the bitmap said the block had space, but it is full. This can
+			// happen if the bitmap was not saved before a crash; fix it.
+			freeMap.setFull(blockNum, true);
+			blockNum = freeMap.firstFree();
 		}
 
 		// come here when no space in valid blocks, so start a new block
-		if (blockNum < 0) {
-			// no room left in the database
-			throw new IllegalStateException("Error: insert failed because database is full");
-		}
-		int newBlockNum = (int) bf.getLastBlockIndex() + 1;
+		long newBlockNum = newDataBlock();
 		// initialize a new block and retry the insert
-		recMap.clear();
-		bf.write(newBlockNum, buffer);
-		blockMap.setBit(newBlockNum, false);
-		bf.write(bitmapBlock, blockmapBuffer);
+		pool.pinNew(newBlockNum);
+		pool.unpin(newBlockNum, false);
+		zones.clear(newBlockNum);
 		return insert(rec);
 	}
 
-	@Override
-	public boolean delete(int key) {
-		Record rec = schema.blankRecord();
+	/**
+	 * Insert a batch of records.  A record is skipped, as by insert(),
+	 * if its key is in the database or belongs to an earlier record of
+	 * the batch.
+	 * @param recs
+	 * @return the number of records inserted
+	 */
+	public int insertAll(Iterable<Record> recs) {
+		List<Record> list = new ArrayList<Record>();
+		for (Record rec : recs) {
+			list.add(rec);
+		}
+		return insertAll(list);
+	}
 
-		// search blocks sequentially for the key
-		bf.read(bitmapBlock, blockmapBuffer); // read the bitmap block
-		for (int blockNum = bitmapBlock + 1; blockNum <= bf.getLastBlockIndex(); blockNum++) { // read all blocks in file
+	/**
+	 * Insert a list of records.  This does the work of insert() once
+	 * for the whole list: the keys are checked against the key index in
+	 * key order, blocks are filled before they are written, the block
+	 * bitmap is written once at the end, and each index gets its new
+	 * entries in key order.
+	 * @param recs
+	 * @return the number of records inserted
+	 */
+	public int insertAll(List<Record> recs) {
+		// look up each distinct key of the batch once, in key order, and
+		// keep the first record with each key not in the database
+		int n = recs.size();
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = recs.get(i).getKey();
+		}
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (m == 0 || sorted[i] != sorted[m - 1]) {
+				sorted[m++] = sorted[i];
+			}
+		}
+		boolean[] taken = new boolean[m];
+		for (int j = 0; j < m; j++) {
+			taken[j] = (keyFilter == null || keyFilter.mightContain(sorted[j])) && locate(sorted[j]) >= 0;
+		}
+		List<Record> batch = new ArrayList<Record>(n);
+		for (int i = 0; i < n; i++) {
+			int j = Arrays.binarySearch(sorted, 0, m, keys[i]);
+			if (!taken[j]) {
+				taken[j] = true;
+				batch.add(recs.get(i));
+			}
+		}
 
-			bf.read(blockNum, buffer);
-			for (int recNum = 0; recNum < recMap.size(); recNum++) { // read all records in that block
-				if (recMap.getBit(recNum)) {
-					// record j is present; check its key value
-					int loc = recordLocation(recNum);
-					rec.deserialize(buffer.buffer, loc);
-					if (key == rec.getKey()) {
-						// found it; to delete the record, simply zero the jth
-						// bit in the record bit map
-						recMap.setBit(recNum, false);
-						bf.write(blockNum, buffer);
-						if (blockMap.getBit(blockNum) == true) {
-							// update blockMap, there is space available in this block now.
-							blockMap.setBit(blockNum, false);
-							bf.write(bitmapBlock, blockmapBuffer);
-						}
-							// index maintenance
-							// YOUR CODE HERE
-						// ordered indexes
-						for (int i = 0; i < indexes.length; i++) {
-							if (indexes[i] != null) {
-								// maintain index[i],
-								 indexes[i].delete(((IntField) rec.get(i)).getValue(), blockNum); // call delete method on index
-							}
-						}
+		// if the heap has no data blocks, its indexes are empty, and the
+		// records are placed in order of record ID, so the indexes can
+		// be built from the new entries rather than inserted into
+		boolean empty = bf.getLastBlockIndex() <= bitmapBlock;
+
+		// fill the blocks that have space, then new blocks. A new block
+		// is filled in a buffer of its own and written once, when full
+		// or at the end of the batch
+		IndexBuilder[] updates = new IndexBuilder[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] != null) {
+				updates[i] = new IndexBuilder();
+			}
+		}
+		BlockBuffer newBuffer = null;
+		int next = 0;
+		while (next < batch.size()) {
+			long blockNum = freeMap.firstFree();
+			boolean existing = blockNum > bitmapBlock && blockNum <= bf.getLastBlockIndex();
+			BlockBuffer buffer;
+			if (existing) {
+				buffer = pool.pin(blockNum);
+			} else {
+				blockNum = newDataBlock();
+				if (newBuffer == null) {
+					newBuffer = bf.getBuffer();
+				}
+				buffer = newBuffer;
+				for (int i = 0; i < buffer.buffer.capacity(); i++) {
+					buffer.buffer.put(i, (byte) 0);
+				}
+				zones.clear(blockNum);
+			}
+			Bitmap recMap = recordMap(buffer);
+			int recNum = recMap.firstZero();
+			while (recNum >= 0 && next < batch.size()) {
+				Record rec = batch.get(next++);
+				rec.serialize(buffer.buffer, recordLocation(recNum));
+				recMap.setBit(recNum, true);
+				zones.add(blockNum, rec);
+				long rid = RecordId.of(blockNum, recNum);
+				for (int i = 0; i < indexes.length; i++) {
+					if (updates[i] != null) {
+						updates[i].add(((IntField) rec.get(i)).getValue(), rid);
+					}
+				}
+				recNum = recMap.nextClearBit(recNum + 1);
+			}
+			if (existing) {
+				pool.unpin(blockNum, true);
+			} else {
+				bf.write(blockNum, buffer);
+			}
+			// a block the bitmap said had space may have been full; this
+			// can happen if the bitmap was not saved before a crash
+			freeMap.setFull(blockNum, recNum < 0);
+		}
+		freeMap.flush();
 
-						return true;
+		// index maintenance
+		for (int i = 0; i < indexes.length; i++) {
+			if (updates[i] == null) {
+				continue;
+			}
+			if (empty) {
+				updates[i].build(indexes[i]);
+			} else {
+				updates[i].insertInto(indexes[i]);
+			}
+		}
+		for (Record rec : batch) {
+			addToKeyFilter(rec.getKey());
+			if (appendMode && (!hasMaxKey || rec.getKey() > maxKey)) {
+				maxKey = rec.getKey();
+				hasMaxKey = true;
+			}
+		}
+		changesSinceAnalyze += batch.size();
+		return batch.size();
+	}
+
+	/**
+	 * Turn append mode on or off.  Append mode is for records that
+	 * mostly arrive in order of increasing key.  An insert of a key
+	 * larger than any in the database then skips the duplicate check
+	 * and the search for a block with space: the record goes into the
+	 * next slot of a tail block that is kept pinned in the buffer pool,
+	 * and that is written back once it is full, or by flush() or
+	 * close().  Other inserts take the usual path.
+	 * @param on
+	 */
+	public void setAppendMode(boolean on) {
+		if (on && !appendMode) {
+			findMaxKey();
+		} else if (!on) {
+			releaseTail();
+		}
+		appendMode = on;
+	}
+
+	// insert a record whose key is larger than any in the database into
+	// the tail block, starting a new tail block if needed
+	private void append(Record rec, int key) {
+		int recNum = -1;
+		if (tailBlockNum >= 0) {
+			// a slot before tailNext may have been freed by a delete, and
+			// filled by an insert, so the bitmap is checked
+			recNum = recordMap(tailBuffer).nextClearBit(tailNext);
+			if (recNum < 0) {
+				releaseTail();
+			}
+		}
+		if (tailBlockNum < 0) {
+			tailBlockNum = newDataBlock();
+			tailBuffer = pool.pinNew(tailBlockNum);
+			freeMap.setFull(tailBlockNum, true);
+			zones.clear(tailBlockNum);
+			recNum = 0;
+		}
+		Bitmap recMap = recordMap(tailBuffer);
+		rec.serialize(tailBuffer.buffer, recordLocation(recNum));
+		recMap.setBit(recNum, true);
+		zones.add(tailBlockNum, rec);
+		tailNext = recNum + 1;
+
+		long rid = RecordId.of(tailBlockNum, recNum);
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] != null) {
+				indexes[i].insert(((IntField) rec.get(i)).getValue(), rid);
+			}
+		}
+		addToKeyFilter(key);
+		maxKey = key;
+		hasMaxKey = true;
+
+		if (recMap.nextClearBit(tailNext) < 0) {
+			releaseTail();
+		}
+	}
+
+	// unpin the tail block, if there is one, and record in the block
+	// bitmap whether it has space
+	private void releaseTail() {
+		if (tailBlockNum < 0) {
+			return;
+		}
+		boolean full = recordMap(tailBuffer).firstZero() < 0;
+		pool.unpin(tailBlockNum, true);
+		freeMap.setFull(tailBlockNum, full);
+		tailBlockNum = -1;
+		tailBuffer = null;
+	}
+
+	// set maxKey to the largest key in the database, reading only the
+	// key field of each record
+	private void findMaxKey() {
+		hasMaxKey = false;
+		int keyOffset = schema.getOffset(keyNum);
+		for (long blockNum = bitmapBlock + 1; blockNum <= bf.getLastBlockIndex(); blockNum++) {
+			if (freeMap.isMapBlock(blockNum)) {
+				continue;
+			}
+			BlockBuffer buffer = pool.pin(blockNum);
+			Bitmap recMap = recordMap(buffer);
+			for (int recNum = recMap.nextSetBit(0); recNum >= 0; recNum = recMap.nextSetBit(recNum + 1)) {
+				int key = buffer.buffer.getInt(recordLocation(recNum) + keyOffset);
+				if (!hasMaxKey || key > maxKey) {
+					maxKey = key;
+					hasMaxKey = true;
+				}
+			}
+			pool.unpin(blockNum, false);
+		}
+	}
+
+	/**
+	 * Write all changed blocks, including the tail block of append
+	 * mode, and the block bitmap to the file.
+	 */
+	public void flush() {
+		if (tailBlockNum >= 0) {
+			pool.markDirty(tailBlockNum);
+		}
+		pool.flush();
+		freeMap.flush();
+	}
+
+	/**
+	 * Load the records of a comma-separated file.
+	 * @see #bulkLoad(String, char)
+	 */
+	public long bulkLoad(String dataFilename) {
+		return bulkLoad(dataFilename, ',');
+	}
+
+	/**
+	 * Load the records of a delimited text file, such as a CSV file.
+	 * Each nonempty line holds the fields of one record, in schema
+	 * order, separated by the delimiter; there is no quoting, so a
+	 * string field cannot hold the delimiter.  A record whose key is in
+	 * the database, or belongs to an earlier line, is dropped, as it
+	 * would be by insert().
+	 *
+	 * The file is streamed: one thread reads lines and groups them a
+	 * block's worth at a time, threads of a fork/join pool (see
+	 * setScanParallelism) parse the fields and encode them straight
+	 * into new blocks, and the blocks are appended to the file in
+	 * order. No Record objects are made. The indexes are rebuilt
+	 * afterwards, each from one scan of its field.
+	 * @param dataFilename name of the file to load
+	 * @param delimiter the character between fields
+	 * @return the number of records loaded
+	 * @throws IllegalArgumentException if a line does not match the
+	 * schema; the blocks encoded before the one with that line are
+	 * loaded
+	 */
+	public long bulkLoad(String dataFilename, char delimiter) {
+		int perBlock = recMapSize * Byte.SIZE; // slots the record bitmap has room for
+		int maxPending = 2 * scanParallelism;
+		long count = 0;
+		ForkJoinPool fjPool = new ForkJoinPool(scanParallelism);
+		try (BufferedReader in = new BufferedReader(new FileReader(dataFilename), 1 << 16)) {
+			ArrayDeque<ForkJoinTask<BlockBuffer>> pending = new ArrayDeque<>();
+			String[] lines = new String[perBlock];
+			long[] lineNums = new long[perBlock];
+			int n = 0;
+			long lineNum = 0;
+			String line;
+			while (true) {
+				line = in.readLine();
+				lineNum++;
+				if (line != null && line.isEmpty()) {
+					continue;
+				}
+				if (line != null) {
+					lines[n] = line;
+					lineNums[n] = lineNum;
+					n++;
+				}
+				if (n == perBlock || (line == null && n > 0)) {
+					// hand a block's worth of lines to the pool; the oldest
+					// block is appended first if too many are pending
+					String[] blockLines = lines;
+					long[] blockLineNums = lineNums;
+					int numLines = n;
+					pending.add(fjPool.submit(() -> encodeBlock(blockLines, blockLineNums, numLines, delimiter)));
+					lines = new String[perBlock];
+					lineNums = new long[perBlock];
+					n = 0;
+				}
+				while (pending.size() >= maxPending || (line == null && !pending.isEmpty())) {
+					count += appendBlock(pending.remove().join());
+				}
+				if (line == null) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Error: can't read " + dataFilename, e);
+		} finally {
+			fjPool.shutdownNow();
+
+			// drop records with repeated keys, keeping the first, which
+			// has the smallest record ID, then rebuild the indexes
+			IndexBuilder keyPairs = scanPairs(keyNum);
+			long[] dups = keyPairs.removeDuplicateKeys();
+			for (long rid : dups) {
+				long blockNum = RecordId.blockNum(rid);
+				recordMap(pool.pin(blockNum)).setBit(RecordId.slotNum(rid), false);
+				pool.unpin(blockNum, true);
+				freeMap.setFull(blockNum, false);
+			}
+			count -= dups.length;
+			changesSinceAnalyze += count;
+			rebuildIndex(keyNum, keyPairs);
+			for (int i = 0; i < indexes.length; i++) {
+				if (i != keyNum && indexes[i] != null) {
+					rebuildIndex(i, scanPairs(i));
+				}
+			}
+			if (keyFilter != null) {
+				buildKeyFilter(2 * Math.max(size(), 1024));
+			}
+			if (appendMode) {
+				findMaxKey();
+			}
+			freeMap.flush();
+		}
+		return count;
+	}
+
+	// encode the given lines of a delimited file as the records of a
+	// new block, reading the fields of each line in place
+	private BlockBuffer encodeBlock(String[] lines, long[] lineNums, int n, char delimiter) {
+		BlockBuffer buffer = bf.getBuffer();
+		Bitmap recMap = recordMap(buffer);
+		int numFields = schema.size();
+		int[] offsets = new int[numFields];
+		for (int i = 0; i < numFields; i++) {
+			offsets[i] = schema.getOffset(i);
+		}
+		for (int r = 0; r < n; r++) {
+			String line = lines[r];
+			int loc = recordLocation(r);
+			int start = 0;
+			for (int i = 0; i < numFields; i++) {
+				int end = line.indexOf(delimiter, start);
+				if (i == numFields - 1) {
+					if (end >= 0) {
+						throw new IllegalArgumentException("line " + lineNums[r] + ": more than " + numFields + " fields");
+					}
+					end = line.length();
+				} else if (end < 0) {
+					throw new IllegalArgumentException("line " + lineNums[r] + ": fewer than " + numFields + " fields");
+				}
+				int pos = loc + offsets[i];
+				FieldType ft = schema.getType(i);
+				if (ft instanceof IntType) {
+					buffer.buffer.putInt(pos, parseInt(line, start, end, lineNums[r]));
+				} else {
+					byte[] bytes = line.substring(start, end).getBytes(StringUtils.charset);
+					if (bytes.length > ((StringType) ft).maxChars()) {
+						throw new IllegalArgumentException("line " + lineNums[r] + ": string exceeds legal max length of " + ((StringType) ft).maxChars());
 					}
+					buffer.buffer.putInt(pos, bytes.length);
+					buffer.buffer.position(pos + Integer.BYTES);
+					buffer.buffer.put(bytes);
 				}
+				start = end + 1;
+			}
+			recMap.setBit(r, true);
+		}
+		return buffer;
+	}
+
+	// return the int in s[start..end), without making a substring
+	private static int parseInt(String s, int start, int end, long lineNum) {
+		boolean negative = start < end && s.charAt(start) == '-';
+		int i = (negative || (start < end && s.charAt(start) == '+')) ? start + 1 : start;
+		if (i == end) {
+			throw new IllegalArgumentException("line " + lineNum + ": missing integer");
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = s.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L) {
+				throw new IllegalArgumentException("line " + lineNum + ": not an integer: " + s.substring(start, end));
+			}
+			value = 10 * value + digit;
+		}
+		value = negative ? -value : value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("line " + lineNum + ": not an integer: " + s.substring(start, end));
+		}
+		return (int) value;
+	}
+
+	// return the number of a new data block at the end of the file
+	private long newDataBlock() {
+		long blockNum = freeMap.newBlock();
+		numDataBlocks++;
+		return blockNum;
+	}
+
+	// append a block of new records to the file, and return the number
+	// of records in it
+	private int appendBlock(BlockBuffer buffer) {
+		long blockNum = newDataBlock();
+		bf.write(blockNum, buffer);
+		setZone(blockNum, buffer);
+		Bitmap recMap = recordMap(buffer);
+		freeMap.setFull(blockNum, recMap.firstZero() < 0);
+		return recMap.cardinality();
+	}
+
+	@Override
+	public boolean delete(int key) {
+		long rid = locate(key);
+		if (rid < 0) {
+			return false;
+		}
+
+		// to delete the record, simply zero its bit in the record bit map
+		long blockNum = RecordId.blockNum(rid);
+		int recNum = RecordId.slotNum(rid);
+		Record rec = schema.blankRecord();
+		BlockBuffer buffer = pool.pin(blockNum);
+		rec.deserialize(buffer.buffer, recordLocation(recNum));
+		recordMap(buffer).setBit(recNum, false);
+		pool.unpin(blockNum, true);
+		zones.remove(blockNum, rec);
+		if (freeMap.isFull(blockNum)) {
+			// update the block bitmap, there is space available in this block now.
+			freeMap.setFull(blockNum, false);
+		}
+
+		// index maintenance
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] != null) {
+				indexes[i].delete(((IntField) rec.get(i)).getValue(), rid);
 			}
 		}
-		return false;
+		changesSinceAnalyze++;
+		return true;
 	}
 
 	@Override
 	public boolean modify(Record rec) {
-		throw new UnsupportedOperationException();
+		long rid = locate(rec.getKey());
+		if (rid < 0) {
+			return false;
+		}
+
+		// overwrite the record in its slot
+		long blockNum = RecordId.blockNum(rid);
+		int loc = recordLocation(RecordId.slotNum(rid));
+		Record old = schema.blankRecord();
+		BlockBuffer buffer = pool.pin(blockNum);
+		old.deserialize(buffer.buffer, loc);
+		rec.serialize(buffer.buffer, loc);
+		pool.unpin(blockNum, true);
+		zones.remove(blockNum, old);
+		zones.add(blockNum, rec);
+
+		// index maintenance: the record has not moved, so only the
+		// indexes on fields whose values changed need new entries
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] != null) {
+				int oldVal = ((IntField) old.get(i)).getValue();
+				int newVal = ((IntField) rec.get(i)).getValue();
+				if (oldVal != newVal) {
+					indexes[i].delete(oldVal, rid);
+					indexes[i].insert(newVal, rid);
+				}
+			}
+		}
+		changesSinceAnalyze++;
+		return true;
+	}
+
+	// Return the record ID of the record with the given primary key,
+	// or -1 if there is none.  The index on the key field is used if
+	// there is one (there always is, except while it is being replaced);
+	// otherwise the blocks are searched, reading only the key field of
+	// each record
+	private long locate(int key) {
+		if (indexes[keyNum] instanceof HashIndex) {
+			// keys are unique, so one probe of a hash index gives the record
+			return ((HashIndex) indexes[keyNum]).lookupFirst(key);
+		} else if (indexes[keyNum] != null) {
+			List<Long> rids = indexes[keyNum].lookup(key);
+			return (rids.size() == 0) ? -1 : rids.get(0);
+		}
+
+		// search blocks sequentially for the key
+		int keyOffset = schema.getOffset(keyNum);
+		for (long blockNum = bitmapBlock + 1; blockNum <= bf.getLastBlockIndex(); blockNum++) {
+			if (freeMap.isMapBlock(blockNum)) {
+				continue;
+			}
+			BlockBuffer buffer = pool.pin(blockNum);
+			Bitmap recMap = recordMap(buffer);
+			for (int recNum = recMap.nextSetBit(0); recNum >= 0; recNum = recMap.nextSetBit(recNum + 1)) {
+				if (buffer.buffer.getInt(recordLocation(recNum) + keyOffset) == key) {
+					pool.unpin(blockNum, false);
+					return RecordId.of(blockNum, recNum);
+				}
+			}
+			pool.unpin(blockNum, false);
+		}
+		return -1;
 	}
 
 	// Return the record in the database having the
 	// given primary key value, or return null if no
 	// such record.
 	public Record lookup(int key) {
-		List<Record> recs = lookup(schema.getKey(), key);
-		if (recs.size() == 0) {
-			return null;
-		}
-		return recs.get(0);
+		long rid = locate(key);
+		return (rid < 0) ? null : fetch(rid);
 	}
 
 	@Override
@@ -309,23 +1089,24 @@ public class HeapDB implements DB, Iterable<Record> {
 		List<Record> result = new ArrayList<Record>();
 
 		// YOUR CODE HERE
-		if (indexes[fieldNum] == null) { 
-			// no index on this column, do a linear scan (see comments below for syntax)
-			for(Record rec: this){
-				if(((IntField) rec.get(fieldNum)).getValue() == key){
-					result.add(rec);
+		if (!plan(fieldNum, key, key).useIndex) { 
+			// no index on this column, or too many matches for one to
+			// pay; do a linear scan, skipping the blocks whose zones
+			// rule out the key; only the matching records are
+			// deserialized
+			RecordCursor cursor = cursor(new int[] { fieldNum }, new int[] { key }, new int[] { key });
+			while (cursor.next()) {
+				if (cursor.getInt(fieldNum) == key) {
+					result.add(cursor.getRecord());
 				}
 			}
 		} else {
 			// do index lookup 
-			//		returns a list of block numbers
-			// then call lookupInBlock to get the actual records
-			List<Integer> blockNos = indexes[fieldNum].lookup(key);
-			for(Integer blockNo: blockNos) {
-				List<Record> records = lookupInBlock(fieldNum, key, blockNo);
-				for (Record rec : records) {
-					result.add(rec);
-				}
+			//		returns a list of record IDs
+			// then read each block with matches once, in block order
+			Iterator<Record> it = new RangeIterator(fieldNum, key, key, sortedRids(indexes[fieldNum].lookup(key)));
+			while (it.hasNext()) {
+				result.add(it.next());
 			}
 		}
 		
@@ -341,60 +1122,423 @@ public class HeapDB implements DB, Iterable<Record> {
 		return result;
 	}
 
-	// Perform a linear search in the block with the given blockNum
-	// for records in which the given integer field has value key
-	public List<Record> lookupInBlock(int fieldNum, int key, int blockNum) {
-		List<Record> result = new ArrayList<Record>();
-
-		// each record in the block will be deserialized into this record
-		Record rec = schema.blankRecord();
-
-		bf.read(blockNum, buffer);
-		for (int recNum = 0; recNum < recMap.size(); recNum++) {
-			if (recMap.getBit(recNum)) {
-				// found a record
-				int loc = recordLocation(recNum);
-				rec.deserialize(buffer.buffer, loc);
-				int fieldVal = ((IntField) rec.get(fieldNum)).getValue();
-				if (fieldVal == key) {
-					// key found. return a copy of record.
-					Record newRecord = schema.blankRecord();
-					newRecord.deserialize(buffer.buffer, loc);
-					result.add(newRecord);
-				}
-			}
-		}
-		return result;
-	}
-
 	/**
-	 * Create an ordered index for the given integer field.
+	 * Return a stream of the records in which the given integer field
+	 * is from lo to hi, inclusive.  With an ordered index on the field,
+	 * the record IDs for the whole range are found first and sorted, so
+	 * that each block holding a match is read once, in ascending block
+	 * order, and the records come out in that order.  Without one, or
+	 * when the range matches too many records for the index to pay
+	 * (see explain()), the records are found by a scan.  Each record is
+	 * a new Record.  The records are read as the stream is used, and
+	 * the database should not be changed until then.
 	 */
-	public void createOrderedIndex(String fname) {
+	public Stream<Record> lookupRange(String fname, int lo, int hi) {
 		int fieldNum = schema.getFieldIndex(fname);
 		if (fieldNum < 0) {
-			throw new IllegalArgumentException("no such field: " + fname);
+			throw new IllegalArgumentException("Field '" + fname + "' not in schema.");
 		}
-		FieldType ft = schema.getType(fieldNum);
-		if (!(ft instanceof IntType)) {
+		if (!(schema.getType(fieldNum) instanceof IntType)) {
 			throw new IllegalArgumentException("field " + fname + " is not of integer type");
 		}
 
-		DBIndex index = new OrdIndex();
-		initializeIndex(fieldNum, index);
-		indexes[fieldNum] = index;
+		long[] rids = null;
+		if (plan(fieldNum, lo, hi).useIndex) {
+			rids = sortedRids(((OrderedIndex) indexes[fieldNum]).lookupRange(lo, hi));
+		}
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+				new RangeIterator(fieldNum, lo, hi, rids), Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	// return the given record IDs in an array, sorted, which puts them
+	// in order by block, then slot
+	private static long[] sortedRids(List<Long> ridList) {
+		long[] rids = new long[ridList.size()];
+		for (int i = 0; i < rids.length; i++) {
+			rids[i] = ridList.get(i);
+		}
+		Arrays.sort(rids);
+		return rids;
 	}
 
 	/**
-	 * Create an ordered index for the key field.
+	 * Compute the statistics of the integer fields of this DB, with one
+	 * scan.  Lookups use them to choose between an index and a scan;
+	 * until this is first called, a lookup uses an index whenever there
+	 * is one that can be used.  The statistics are not kept up to date
+	 * as the records change, so this should be called again after many
+	 * changes (see getChangesSinceAnalyze()).  They are not saved when
+	 * the database is closed.
 	 */
-	public void createOrderedIndex() {
-		createOrderedIndex(schema.getKey());
-		System.out.println( ((OrdIndex)indexes[0]).toString()); 
+	public void analyze() {
+		int numFields = schema.size();
+		int[][] values = new int[numFields][];
+		for (int i = 0; i < numFields; i++) {
+			if (schema.getType(i) instanceof IntType) {
+				values[i] = new int[1024];
+			}
+		}
+		int n = 0;
+		RecordCursor cursor = cursor();
+		while (cursor.next()) {
+			for (int i = 0; i < numFields; i++) {
+				if (values[i] != null) {
+					if (n == values[i].length) {
+						values[i] = Arrays.copyOf(values[i], 2 * n);
+					}
+					values[i][n] = cursor.getInt(i);
+				}
+			}
+			n++;
+		}
+		stats = new FieldStats[numFields];
+		for (int i = 0; i < numFields; i++) {
+			if (values[i] != null) {
+				stats[i] = new FieldStats(values[i], n);
+			}
+		}
+		changesSinceAnalyze = 0;
 	}
 
 	/**
-	 * Create a hash index for the given integer field.
+	 * Return the number of records inserted, deleted or changed since
+	 * the statistics were last computed.
+	 * @see #analyze()
+	 */
+	public long getChangesSinceAnalyze() {
+		return changesSinceAnalyze;
+	}
+
+	/**
+	 * Return the statistics of the given integer field, as of the last
+	 * call of analyze(), or null if it has not been called.
+	 * @see #analyze()
+	 */
+	public FieldStats getStats(String fname) {
+		int fieldNum = schema.getFieldIndex(fname);
+		if (fieldNum < 0) {
+			throw new IllegalArgumentException("Field '" + fname + "' not in schema.");
+		}
+		if (!(schema.getType(fieldNum) instanceof IntType)) {
+			throw new IllegalArgumentException("field " + fname + " is not of integer type");
+		}
+		return stats(fieldNum);
+	}
+
+	// return the statistics of an integer field, or null if there are
+	// none
+	private FieldStats stats(int fieldNum) {
+		return (stats == null) ? null : stats[fieldNum];
+	}
+
+	/**
+	 * Turn the choice between an index and a scan by their estimated
+	 * costs on or off.  When it is off, a lookup uses an index whenever
+	 * there is one that can be used.  It is on by default.
+	 * @param on
+	 */
+	public void setCostBasedAccess(boolean on) {
+		costBasedAccess = on;
+	}
+
+	/**
+	 * Return a description of how lookup(fname, key) would find its
+	 * records: by an index or by a scan, with the estimated number of
+	 * matches and of block reads.
+	 */
+	public String explain(String fname, int key) {
+		return explain(fname, key, key);
+	}
+
+	/**
+	 * Return a description of how lookupRange(fname, lo, hi) would find
+	 * its records.
+	 * @see #explain(String, int)
+	 */
+	public String explain(String fname, int lo, int hi) {
+		int fieldNum = schema.getFieldIndex(fname);
+		if (fieldNum < 0) {
+			throw new IllegalArgumentException("Field '" + fname + "' not in schema.");
+		}
+		if (!(schema.getType(fieldNum) instanceof IntType)) {
+			throw new IllegalArgumentException("field " + fname + " is not of integer type");
+		}
+		Plan p = plan(fieldNum, lo, hi);
+		long scanReads = (p.scanReads >= 0) ? p.scanReads : scanReads(fieldNum, lo, hi);
+		String s = fname + ((lo == hi) ? " = " + lo : " from " + lo + " to " + hi) + ": ";
+		if (!p.useIndex && p.indexReads < 0) {
+			return s + String.format("scan, %d block reads (no usable index)", scanReads);
+		}
+		String index = indexes[fieldNum].getClass().getSimpleName();
+		if (p.rows < 0) {
+			return s + "index (" + index + "), " + (costBasedAccess ? "no statistics" : "cost-based access is off");
+		}
+		return s + String.format("%s, about %.0f matches; index (%s) %.0f block reads, cost %.0f; scan %d block reads",
+				p.useIndex ? "index" : "scan", p.rows, index, p.indexReads, p.indexReads * randomReadCost, scanReads);
+	}
+
+	// the way a lookup of the values from lo to hi of a field is done,
+	// with its estimated costs
+	private static class Plan {
+		boolean useIndex;
+		double rows = -1; // estimated number of matches, if known
+		double indexReads = -1; // estimated block reads by the index, or -1 if it can't be used
+		long scanReads = -1; // block reads by a scan, if counted
+	}
+
+	// Choose between the index on a field, if it can be used, and a scan,
+	// for a lookup of the values from lo to hi.  A scan reads the data
+	// blocks in order, except those whose zones rule out a match.  The
+	// index reads each block with a match once, in block order, but the
+	// blocks are apart, so each read costs randomReadCost.  The number of
+	// blocks with a match is estimated from the field's statistics: for m
+	// matches out of n records in b data blocks it is b(1 - (1 - 1/b)^m)
+	// if the matches are scattered, and about mb/n if the records are in
+	// order by the field; the estimate is between the two, by the square
+	// of the field's correlation with the order of the records.  A lookup
+	// of one value of the key uses the index without statistics, since
+	// there is at most one match, as does every lookup when cost-based
+	// access is off or there are no statistics; the blocks a scan would
+	// read are only counted when the costs are compared.
+	private Plan plan(int fieldNum, int lo, int hi) {
+		Plan p = new Plan();
+		DBIndex index = indexes[fieldNum];
+		if (index == null || (lo != hi && !(index instanceof OrderedIndex))) {
+			return p;
+		}
+		if (fieldNum == keyNum && lo == hi) {
+			p.useIndex = true;
+			p.rows = 1;
+			p.indexReads = 1;
+			return p;
+		}
+		if (!costBasedAccess) {
+			p.useIndex = true;
+			return p;
+		}
+		FieldStats fs = stats(fieldNum);
+		if (fs == null) {
+			p.useIndex = true;
+			return p;
+		}
+		long b = numDataBlocks;
+		p.scanReads = scanReads(fieldNum, lo, hi);
+		p.rows = fs.estimateRange(lo, hi);
+		if (b == 0 || p.rows == 0) {
+			p.indexReads = 0;
+		} else {
+			double scattered = b * (1 - Math.pow(1 - 1.0 / b, p.rows));
+			double clustered = Math.max(1, Math.ceil(p.rows * b / fs.rowCount()));
+			double c2 = fs.correlation() * fs.correlation();
+			p.indexReads = Math.min(p.rows, scattered + c2 * (clustered - scattered));
+		}
+		p.useIndex = p.indexReads * randomReadCost < p.scanReads;
+		return p;
+	}
+
+	// return the number of block reads of a scan for the values from lo
+	// to hi of a field: the data blocks whose zones do not rule them out
+	private long scanReads(int fieldNum, int lo, int hi) {
+		if (lo > hi) {
+			return 0;
+		}
+		// the zones of the blocks of the block bitmap are never known, so
+		// they are counted, and taken off
+		long last = bf.getLastBlockIndex();
+		long numMapBlocks = last - bitmapBlock - numDataBlocks;
+		return zones.countMightContain(fieldNum, lo, hi, bitmapBlock + 1, last) - numMapBlocks;
+	}
+
+	/**
+	 * Return a stream of all the records, in ascending order by the
+	 * given integer field.
+	 * @see #iterateOrderedBy(String, int)
+	 */
+	public Stream<Record> iterateOrderedBy(String fname) {
+		return orderedBy(fname, false, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Return a stream of the first limit records in ascending order by
+	 * the given integer field.  With an ordered index on the field, the
+	 * index is walked in key order and each record is read from its
+	 * slot through the buffer pool, so that no sort is needed, only the
+	 * records returned are read, and when records with nearby values
+	 * are in nearby blocks most reads find their block in the pool.
+	 * Without one, the records are found by a scan and sorted; only the
+	 * first limit of them are kept.  Each record is a new Record.  The
+	 * records are read as the stream is used, and the database should
+	 * not be changed until then.
+	 */
+	public Stream<Record> iterateOrderedBy(String fname, int limit) {
+		return orderedBy(fname, false, limit);
+	}
+
+	/**
+	 * Return a stream of all the records, in descending order by the
+	 * given integer field.
+	 * @see #iterateOrderedBy(String, int)
+	 */
+	public Stream<Record> iterateOrderedByDescending(String fname) {
+		return orderedBy(fname, true, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Return a stream of the first limit records in descending order
+	 * by the given integer field.
+	 * @see #iterateOrderedBy(String, int)
+	 */
+	public Stream<Record> iterateOrderedByDescending(String fname, int limit) {
+		return orderedBy(fname, true, limit);
+	}
+
+	private Stream<Record> orderedBy(String fname, boolean descending, int limit) {
+		int fieldNum = schema.getFieldIndex(fname);
+		if (fieldNum < 0) {
+			throw new IllegalArgumentException("Field '" + fname + "' not in schema.");
+		}
+		if (!(schema.getType(fieldNum) instanceof IntType)) {
+			throw new IllegalArgumentException("field " + fname + " is not of integer type");
+		}
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative");
+		}
+
+		Iterator<Record> records;
+		if (indexes[fieldNum] instanceof OrderedIndex) {
+			final Iterator<Long> rids = ((OrderedIndex) indexes[fieldNum]).iterator(descending);
+			records = new Iterator<Record>() {
+				int n = 0; // records returned
+				Record rec = findNext();
+
+				// return the record of the next record ID whose slot is
+				// not empty, or null
+				private Record findNext() {
+					while (n < limit && rids.hasNext()) {
+						Record r = fetch(rids.next());
+						if (r != null) {
+							return r;
+						}
+					}
+					return null;
+				}
+
+				public boolean hasNext() {
+					return rec != null;
+				}
+
+				public Record next() {
+					if (rec == null) {
+						throw new NoSuchElementException();
+					}
+					Record r = rec;
+					n++;
+					rec = findNext();
+					return r;
+				}
+			};
+		} else {
+			records = sortByScan(fieldNum, descending, limit).iterator();
+		}
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+				records, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	// Return the first limit records in order by the given integer
+	// field, found by a scan.  The first limit records seen so far are
+	// kept in a heap with the last of them on top; other records are
+	// not deserialized.
+	private List<Record> sortByScan(int fieldNum, boolean descending, int limit) {
+		Comparator<Record> order = Comparator.comparingInt(rec -> ((IntField) rec.get(fieldNum)).getValue());
+		if (descending) {
+			order = order.reversed();
+		}
+		PriorityQueue<Record> first = new PriorityQueue<Record>(11, order.reversed());
+		if (limit > 0) {
+			RecordCursor cursor = cursor();
+			while (cursor.next()) {
+				if (first.size() < limit) {
+					first.add(cursor.getRecord());
+					continue;
+				}
+				int v = cursor.getInt(fieldNum);
+				int last = ((IntField) first.peek().get(fieldNum)).getValue();
+				if (descending ? v > last : v < last) {
+					first.poll();
+					first.add(cursor.getRecord());
+				}
+			}
+		}
+		List<Record> result = new ArrayList<Record>(first);
+		result.sort(order);
+		return result;
+	}
+
+	// Return the record with the given record ID, or null if its slot
+	// is empty
+	private Record fetch(long rid) {
+		long blockNum = RecordId.blockNum(rid);
+		int recNum = RecordId.slotNum(rid);
+		Record rec = null;
+		BlockBuffer buffer = pool.pin(blockNum);
+		if (recordMap(buffer).getBit(recNum)) {
+			rec = schema.blankRecord();
+			rec.deserialize(buffer.buffer, recordLocation(recNum));
+		}
+		pool.unpin(blockNum, false);
+		return rec;
+	}
+
+	// Perform a linear search in the block with the given blockNum
+	// for records in which the given integer field has value key
+	public List<Record> lookupInBlock(int fieldNum, int key, long blockNum) {
+		List<Record> result = new ArrayList<Record>();
+
+		BlockBuffer buffer = pool.pin(blockNum);
+		Bitmap recMap = recordMap(buffer);
+		int fieldOffset = schema.getOffset(fieldNum);
+		for (int recNum = recMap.nextSetBit(0); recNum >= 0; recNum = recMap.nextSetBit(recNum + 1)) {
+			// found a record; only its search key field is read
+			int loc = recordLocation(recNum);
+			int fieldVal = buffer.buffer.getInt(loc + fieldOffset);
+			if (fieldVal == key) {
+				// key found. return a copy of record.
+				Record newRecord = schema.blankRecord();
+				newRecord.deserialize(buffer.buffer, loc);
+				result.add(newRecord);
+			}
+		}
+		pool.unpin(blockNum, false);
+		return result;
+	}
+
+	/**
+	 * Create an ordered index for the given integer field.
+	 */
+	public void createOrderedIndex(String fname) {
+		int fieldNum = schema.getFieldIndex(fname);
+		if (fieldNum < 0) {
+			throw new IllegalArgumentException("no such field: " + fname);
+		}
+		FieldType ft = schema.getType(fieldNum);
+		if (!(ft instanceof IntType)) {
+			throw new IllegalArgumentException("field " + fname + " is not of integer type");
+		}
+
+		DBIndex index = new BTreeIndex();
+		initializeIndex(fieldNum, index);
+		setIndex(fieldNum, index);
+	}
+
+	/**
+	 * Create an ordered index for the key field.
+	 */
+	public void createOrderedIndex() {
+		createOrderedIndex(schema.getKey());
+	}
+
+	/**
+	 * Create a hash index for the given integer field.
 	 */
 	public void createHashIndex(String fname) {
 		int fieldNum = schema.getFieldIndex(fname);
@@ -408,7 +1552,7 @@ public class HeapDB implements DB, Iterable<Record> {
 
 		DBIndex index = new HashIndex();
 		initializeIndex(fieldNum, index);
-		indexes[fieldNum] = index;
+		setIndex(fieldNum, index);
 	}
 
 	/**
@@ -418,29 +1562,69 @@ public class HeapDB implements DB, Iterable<Record> {
 		createHashIndex(schema.getKey());
 	}
 
+	/**
+	 * Create a disk-resident ordered index for the given integer field.
+	 * The index is kept in its own file, and is reattached by open().
+	 */
+	public void createDiskIndex(String fname) {
+		int fieldNum = schema.getFieldIndex(fname);
+		if (fieldNum < 0) {
+			throw new IllegalArgumentException("no such field: " + fname);
+		}
+		FieldType ft = schema.getType(fieldNum);
+		if (!(ft instanceof IntType)) {
+			throw new IllegalArgumentException("field " + fname + " is not of integer type");
+		}
+
+		setIndex(fieldNum, null); // an old disk index uses the same file
+		DBIndex index = new DiskBTreeIndex(indexFilename(fieldNum));
+		initializeIndex(fieldNum, index);
+		setIndex(fieldNum, index);
+	}
+
+	/**
+	 * Create a disk-resident ordered index for the primary key field.
+	 */
+	public void createDiskIndex() {
+		createDiskIndex(schema.getKey());
+	}
+
+	// replace the index for the given field; a disk index that is
+	// replaced is closed and its file is deleted
+	private void setIndex(int fieldNum, DBIndex index) {
+		DBIndex old = indexes[fieldNum];
+		indexes[fieldNum] = index;
+		if (old instanceof DiskBTreeIndex) {
+			((DiskBTreeIndex) old).close();
+			new File(indexFilename(fieldNum)).delete();
+		}
+		writeIndexList();
+	}
+
+	// replace the index on the given field by a new index of the same
+	// type, built from the given pairs
+	private void rebuildIndex(int fieldNum, IndexBuilder builder) {
+		int type = indexType(indexes[fieldNum]);
+		DBIndex index;
+		if (type == diskIndexType) {
+			setIndex(fieldNum, null); // the old index uses the same file
+			index = new DiskBTreeIndex(indexFilename(fieldNum));
+		} else {
+			index = newIndex(type);
+		}
+		builder.build(index);
+		setIndex(fieldNum, index);
+	}
+
 	// initialize the given index
 	private void initializeIndex(int fieldNum, DBIndex index) {
 		if (index == null) {
 			throw new IllegalArgumentException("index is null");
 		}
 
-		// YOUR CODE HERE
-		// for each record in the DB, you will need to insert its
-		// search key value and the block number
-
-		Record rec = schema.blankRecord();
-		bf.read(bitmapBlock, blockmapBuffer); // read the bitmap block
-		for (int blockNum = bitmapBlock + 1; blockNum <= bf.getLastBlockIndex(); blockNum++) { // read all blocks in file
-
-			bf.read(blockNum, buffer);
-			for (int recNum = 0; recNum < recMap.size(); recNum++) { // read all records in that block
-				if (recMap.getBit(recNum)) {
-					int bytePos = recordLocation(recNum);
-					rec.deserialize(buffer.buffer, bytePos);
-					index.insert(((IntField) rec.get(fieldNum)).getValue(), blockNum);
-				}
-			}
-		}
+		// for each record in the DB, collect its search key value and
+		// record ID, then build the index from all the pairs at once
+		scanPairs(fieldNum).build(index);
 //		for (Record rec: this) {
 //			//indexes.insert(key, block number);
 //			for(Integer blockNo: index.lookup(rec.getKey())){
@@ -449,16 +1633,90 @@ public class HeapDB implements DB, Iterable<Record> {
 //		}
 	}
 
+	// return the search key value and record ID of every record, in
+	// order of record ID. The blocks are read from the file, not
+	// through the pool, so that ranges of blocks can be scanned by
+	// several threads, each into a partial builder; the partials are
+	// then joined in order
+	private IndexBuilder scanPairs(int fieldNum) {
+		flush();
+		long first = bitmapBlock + 1;
+		long last = bf.getLastBlockIndex();
+		IndexBuilder builder;
+		if (scanParallelism == 1 || last - first < blocksPerScanTask) {
+			builder = scanForIndex(fieldNum, first, last);
+		} else {
+			builder = new IndexBuilder();
+			ForkJoinPool fjPool = new ForkJoinPool(scanParallelism);
+			try {
+				List<ForkJoinTask<IndexBuilder>> tasks = new ArrayList<>();
+				for (long start = first; start <= last; start += blocksPerScanTask) {
+					long rangeStart = start;
+					long rangeEnd = Math.min(last, start + blocksPerScanTask - 1);
+					tasks.add(fjPool.submit(() -> scanForIndex(fieldNum, rangeStart, rangeEnd)));
+				}
+				for (ForkJoinTask<IndexBuilder> task : tasks) {
+					builder.addAll(task.join());
+				}
+			} finally {
+				fjPool.shutdown();
+			}
+		}
+		return builder;
+	}
+
+	// return the search key value and record ID of each record in
+	// blocks first..last, in order; only the search key field is read.
+	// The blocks are read into a buffer of this scan's own, so that
+	// scans can run at the same time
+	private IndexBuilder scanForIndex(int fieldNum, long first, long last) {
+		IndexBuilder builder = new IndexBuilder();
+		BlockBuffer buffer = bf.getBuffer();
+		int fieldOffset = schema.getOffset(fieldNum);
+		for (long blockNum = first; blockNum <= last; blockNum++) {
+			if (freeMap.isMapBlock(blockNum)) {
+				continue;
+			}
+			bf.read(blockNum, buffer);
+			Bitmap recMap = recordMap(buffer);
+			for (int recNum = recMap.nextSetBit(0); recNum >= 0; recNum = recMap.nextSetBit(recNum + 1)) {
+				builder.add(buffer.buffer.getInt(recordLocation(recNum) + fieldOffset), RecordId.of(blockNum, recNum));
+			}
+		}
+		return builder;
+	}
+
+	/**
+	 * Set the number of threads used to scan the heap when an index
+	 * is built, and to encode records in bulkLoad.  The default is the
+	 * parallelism of the common fork/join pool; 1 means an index scan
+	 * is done by the calling thread.
+	 * @param parallelism
+	 */
+	public void setScanParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("scan parallelism must be at least 1");
+		}
+		scanParallelism = parallelism;
+	}
+
 	/**
 	 * Delete the index for the given field. Do nothing if no index exists for the
-	 * given field.
+	 * given field.  The primary key always has an index, so its index
+	 * is replaced by a hash index unless it is one already.
 	 */
 	public void deleteIndex(String fname) {
 		int fieldNum = schema.getFieldIndex(fname);
 		if (fieldNum < 0) {
 			throw new IllegalArgumentException("no such field: " + fname);
 		}
-		indexes[fieldNum] = null;
+		if (fieldNum == keyNum) {
+			if (!(indexes[keyNum] instanceof HashIndex)) {
+				createHashIndex();
+			}
+			return;
+		}
+		setIndex(fieldNum, null);
 	}
 
 	/**
@@ -468,6 +1726,60 @@ public class HeapDB implements DB, Iterable<Record> {
 		deleteIndex(schema.getKey());
 	}
 
+	/**
+	 * Keep a Bloom filter of the primary keys, so that an insert
+	 * rarely has to look up its key in the key index.  The filter is
+	 * built by a scan of the keys, and is rebuilt, twice as large,
+	 * whenever more keys have been added than it was sized for.  It is
+	 * not saved when the database is closed.
+	 * @param falsePositiveRate the wanted rate of false positives
+	 */
+	public void createKeyFilter(double falsePositiveRate) {
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("false positive rate must be between 0 and 1");
+		}
+		keyFilterRate = falsePositiveRate;
+		buildKeyFilter(2 * Math.max(size(), 1024));
+	}
+
+	/**
+	 * Stop keeping a Bloom filter of the primary keys.
+	 */
+	public void deleteKeyFilter() {
+		keyFilter = null;
+	}
+
+	// build a new key filter with the given capacity, from the keys of
+	// all the records
+	private void buildKeyFilter(int capacity) {
+		BloomFilter filter = new BloomFilter(capacity, keyFilterRate);
+		int keyOffset = schema.getOffset(keyNum);
+		for (long blockNum = bitmapBlock + 1; blockNum <= bf.getLastBlockIndex(); blockNum++) {
+			if (freeMap.isMapBlock(blockNum)) {
+				continue;
+			}
+			BlockBuffer buffer = pool.pin(blockNum);
+			Bitmap recMap = recordMap(buffer);
+			for (int recNum = recMap.nextSetBit(0); recNum >= 0; recNum = recMap.nextSetBit(recNum + 1)) {
+				filter.add(buffer.buffer.getInt(recordLocation(recNum) + keyOffset));
+			}
+			pool.unpin(blockNum, false);
+		}
+		keyFilter = filter;
+	}
+
+	// add a newly inserted key to the key filter, if there is one
+	private void addToKeyFilter(int key) {
+		if (keyFilter == null) {
+			return;
+		}
+		if (keyFilter.count() >= keyFilter.capacity()) {
+			buildKeyFilter(2 * keyFilter.capacity());	// includes key
+		} else {
+			keyFilter.add(key);
+		}
+	}
+
 	/**
 	 * Iterate over all the records in this DB.
 	 */
@@ -475,60 +1787,385 @@ public class HeapDB implements DB, Iterable<Record> {
 		return new DBIterator();
 	}
 
+	/**
+	 * Return a spliterator over all the records in this DB, which
+	 * splits on ranges of blocks.  Changed blocks are written to the
+	 * file first; the spliterator reads the file, and the database
+	 * should not be changed while it is in use.  As with the iterator,
+	 * each part of a split reuses one Record for all its records, so
+	 * a record that is kept must be copied.
+	 */
+	@Override
+	public Spliterator<Record> spliterator() {
+		flush();
+		return new BlockSpliterator(bitmapBlock + 1, bf.getLastBlockIndex());
+	}
+
+	/**
+	 * Return a sequential stream of the records in this DB.
+	 * @see #spliterator()
+	 */
+	public Stream<Record> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * Return a parallel stream of the records in this DB.  Each thread
+	 * reads its own ranges of blocks, into its own buffer.
+	 * @see #spliterator()
+	 */
+	public Stream<Record> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * Return a cursor over all the records in this DB.  The cursor reads
+	 * the blocks through the buffer pool, so it sees changes that are
+	 * not yet written to the file, and copies each block into a buffer
+	 * of its own; the database should not be changed while it is in use.
+	 */
+	public RecordCursor cursor() {
+		return new BlockCursor(new int[0], null, null);
+	}
+
+	// Return a cursor over the records of the blocks that may have a
+	// record in which each field fieldNums[k] is from lo[k] to hi[k].
+	// Blocks whose zones rule that out are not read; the cursor's
+	// records are not tested, so some of them may not match. The cursor
+	// sets the zones of the blocks it reads that were unknown.
+	RecordCursor cursor(int[] fieldNums, int[] lo, int[] hi) {
+		return new BlockCursor(fieldNums, lo, hi);
+	}
+
+	// set the zone of a data block from the records in the given buffer
+	private void setZone(long blockNum, BlockBuffer buffer) {
+		zones.clear(blockNum);
+		Bitmap recMap = recordMap(buffer);
+		for (int i = 0; i < schema.size(); i++) {
+			if (schema.getType(i) instanceof IntType) {
+				int offset = schema.getOffset(i);
+				for (int recNum = recMap.nextSetBit(0); recNum >= 0; recNum = recMap.nextSetBit(recNum + 1)) {
+					zones.add(blockNum, i, buffer.buffer.getInt(recordLocation(recNum) + offset));
+				}
+			}
+		}
+	}
+
+	// A RecordCursor over the blocks of the file, except those the zone
+	// map rules out. Field values are read from the buffer at the
+	// record's location plus the field's offset, which are computed once.
+	private class BlockCursor implements RecordCursor {
+		long b, nb; // block number, last block number
+		int r; // record number
+		BlockBuffer buffer;
+		Bitmap recMap; // record bitmap of the block in the buffer, or null
+		int loc; // location of the current record in the buffer
+		int[] offsets;
+		boolean[] isInt;
+		int[] zoneFields, zoneLo, zoneHi; // ranges for skipping blocks
+
+		BlockCursor(int[] zoneFields, int[] zoneLo, int[] zoneHi) {
+			this.zoneFields = zoneFields;
+			this.zoneLo = zoneLo;
+			this.zoneHi = zoneHi;
+			b = bitmapBlock; // before the first data block
+			nb = bf.getLastBlockIndex();
+			buffer = bf.getBuffer();
+			offsets = new int[schema.size()];
+			isInt = new boolean[schema.size()];
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = schema.getOffset(i);
+				isInt[i] = schema.getType(i) instanceof IntType;
+			}
+		}
+
+		public boolean next() {
+			while (true) {
+				if (recMap != null) {
+					r = recMap.nextSetBit(r + 1);
+					if (r >= 0) {
+						loc = recordLocation(r);
+						return true;
+					}
+					recMap = null;
+				}
+				b++;
+				if (b > nb) {
+					b = nb;
+					return false;
+				}
+				if (!freeMap.isMapBlock(b) && mightMatch(b)) {
+					read(b);
+					recMap = recordMap(buffer);
+					r = -1;
+					if (zoneFields.length > 0 && !zones.isKnown(b)) {
+						setZone(b, buffer);
+					}
+				}
+			}
+		}
+
+		// copy block b from the pool into the buffer
+		private void read(long b) {
+			ByteBuffer frame = pool.pin(b).buffer.duplicate();
+			frame.clear();
+			buffer.buffer.clear();
+			buffer.buffer.put(frame);
+			pool.unpin(b, false);
+		}
+
+		// return false if the zones of block b rule out a match
+		private boolean mightMatch(long b) {
+			for (int k = 0; k < zoneFields.length; k++) {
+				if (!zones.mightContain(b, zoneFields[k], zoneLo[k], zoneHi[k])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public int getInt(int fieldNum) {
+			if (!isInt[check(fieldNum)]) {
+				throw new IllegalArgumentException("field " + schema.getName(fieldNum) + " is not of integer type");
+			}
+			return buffer.buffer.getInt(loc + offsets[fieldNum]);
+		}
+
+		public int compareString(int fieldNum, byte[] bytes) {
+			if (isInt[check(fieldNum)]) {
+				throw new IllegalArgumentException("field " + schema.getName(fieldNum) + " is not of string type");
+			}
+			int pos = loc + offsets[fieldNum];
+			int len = buffer.buffer.getInt(pos);
+			pos += Integer.BYTES;
+			int n = Math.min(len, bytes.length);
+			for (int i = 0; i < n; i++) {
+				int cmp = (buffer.buffer.get(pos + i) & 0xff) - (bytes[i] & 0xff);
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+			return len - bytes.length;
+		}
+
+		public String getString(int fieldNum) {
+			if (isInt[check(fieldNum)]) {
+				throw new IllegalArgumentException("field " + schema.getName(fieldNum) + " is not of string type");
+			}
+			return StringUtils.deserializeString(buffer.buffer, loc + offsets[fieldNum]);
+		}
+
+		public Record getRecord() {
+			check(0);
+			Record rec = schema.blankRecord();
+			rec.deserialize(buffer.buffer, loc);
+			return rec;
+		}
+
+		public long getRecordId() {
+			check(0);
+			return RecordId.of(b, r);
+		}
+
+		// return the field number, after checking that the cursor is on
+		// a record and that the field is in the schema
+		private int check(int fieldNum) {
+			if (recMap == null) {
+				throw new IllegalStateException("the cursor is not on a record");
+			}
+			if (fieldNum < 0 || fieldNum >= offsets.length) {
+				throw new IllegalArgumentException("no field " + fieldNum + " in schema " + schema);
+			}
+			return fieldNum;
+		}
+	}
+
+	// An Iterator over the records in which a field is from lo to hi.
+	// Given the sorted record IDs of the matches, it pins each of their
+	// blocks once and copies out the matches in it; with no record IDs
+	// it scans with a cursor.
+	private class RangeIterator implements Iterator<Record> {
+		int fieldNum, lo, hi;
+		long[] rids; // sorted, or null for a scan
+		int i; // index of the next record ID
+		RecordCursor cursor;
+		ArrayDeque<Record> ready = new ArrayDeque<Record>(); // matches found but not returned
+
+		RangeIterator(int fieldNum, int lo, int hi, long[] rids) {
+			this.fieldNum = fieldNum;
+			this.lo = lo;
+			this.hi = hi;
+			this.rids = rids;
+			if (rids == null) {
+				cursor = cursor(new int[] { fieldNum }, new int[] { lo }, new int[] { hi });
+			}
+		}
+
+		public boolean hasNext() {
+			while (ready.isEmpty()) {
+				if (rids == null) {
+					if (!cursor.next()) {
+						return false;
+					}
+					int v = cursor.getInt(fieldNum);
+					if (v >= lo && v <= hi) {
+						ready.add(cursor.getRecord());
+					}
+				} else if (i < rids.length) {
+					readBlock();
+				} else {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public Record next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return ready.remove();
+		}
+
+		// copy out the matches in the block of the next record ID; the
+		// field is checked again in case the index is out of date
+		private void readBlock() {
+			long blockNum = RecordId.blockNum(rids[i]);
+			BlockBuffer buffer = pool.pin(blockNum);
+			Bitmap recMap = recordMap(buffer);
+			int fieldOffset = schema.getOffset(fieldNum);
+			for (; i < rids.length && RecordId.blockNum(rids[i]) == blockNum; i++) {
+				int recNum = RecordId.slotNum(rids[i]);
+				if ((i > 0 && rids[i] == rids[i - 1]) || !recMap.getBit(recNum)) {
+					continue;
+				}
+				int loc = recordLocation(recNum);
+				int v = buffer.buffer.getInt(loc + fieldOffset);
+				if (v >= lo && v <= hi) {
+					Record rec = schema.blankRecord();
+					rec.deserialize(buffer.buffer, loc);
+					ready.add(rec);
+				}
+			}
+			pool.unpin(blockNum, false);
+		}
+	}
+
+	// A Spliterator over the records in a range of blocks. Blocks are
+	// read from the file into a buffer of the spliterator's own, not
+	// through the pool, so that the parts of a split can be used by
+	// different threads at the same time.
+	private class BlockSpliterator implements Spliterator<Record> {
+		long next, last; // next block to read, last block of the range
+		BlockBuffer buffer;
+		Bitmap recMap; // record bitmap of the block in the buffer, or null
+		int r; // record number
+		Record rec;
+
+		BlockSpliterator(long first, long last) {
+			next = first;
+			this.last = last;
+		}
+
+		public boolean tryAdvance(Consumer<? super Record> action) {
+			while (true) {
+				if (recMap != null) {
+					r = recMap.nextSetBit(r + 1);
+					if (r >= 0) {
+						rec.deserialize(buffer.buffer, recordLocation(r));
+						action.accept(rec);
+						return true;
+					}
+					recMap = null;
+				}
+				if (next > last) {
+					return false;
+				}
+				if (!freeMap.isMapBlock(next)) {
+					if (buffer == null) {
+						buffer = bf.getBuffer();
+						rec = schema.blankRecord();
+					}
+					bf.read(next, buffer);
+					recMap = recordMap(buffer);
+					r = -1;
+				}
+				next++;
+			}
+		}
+
+		public Spliterator<Record> trySplit() {
+			// split off the first half of the blocks not yet read
+			long n = last - next + 1;
+			if (n < 2) {
+				return null;
+			}
+			long mid = next + n / 2 - 1;
+			BlockSpliterator prefix = new BlockSpliterator(next, mid);
+			next = mid + 1;
+			return prefix;
+		}
+
+		public long estimateSize() {
+			// an upper bound: every block of the range is full
+			return Math.max(0, last - next + 1) * recMapSize * Byte.SIZE;
+		}
+
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+	}
+
 	// An Iterator over the records in the database, implemented as a nested class.
+	// A block is pinned only while the iterator is looking at it, so an
+	// iterator that is abandoned part way through leaves nothing pinned.
 	private class DBIterator implements Iterator<Record> {
 		Record rec;
-		int b, nb; // block number, number of blocks
-		int r, nr; // record number, number of records
+		long b, nb; // block number, number of blocks
+		int r; // record number
 
 		DBIterator() {
 			rec = schema.blankRecord();
-			bf.read(bitmapBlock, blockmapBuffer);
 			b = bitmapBlock + 1; // first data block
-			nb = (int) bf.getLastBlockIndex(); // FIX THIS
-			r = -1; // a value of -1 means block status is unknown
-			nr = recMap.size();
+			nb = bf.getLastBlockIndex();
+			r = -1;
 			findNext();
 		}
 
-		// locate next (b,r) value such that the bit is set
-		// on the block map at b and on the record map at r
+		// locate the next (b,r) value such that the bit is set on the
+		// record map of block b at r; if there is none, b is set past nb
 		private void findNext() {
-			// if r is -1, status of block b is unknown
-			if (r == -1) {
-
-				if (b > bf.getLastBlockIndex()) {
-					// no more blocks available
-					r = nr;
-					return;
-				}
-				// block b is in use; read it
-				bf.read(b, buffer);
-			}
-			// find a record r in block b
 			r++;
-			while (r < nr) {
-				if (recMap.getBit(r)) {
-					break;
+			while (b <= nb) {
+				if (freeMap.isMapBlock(b)) {
+					// a block of the block bitmap, not records
+					b++;
+					continue;
 				}
-				r++;
-			}
-			if (r == nr) {
-				// no record slots available
+				BlockBuffer buffer = pool.pin(b);
+				Bitmap recMap = recordMap(buffer);
+				r = recMap.nextSetBit(r);
+				pool.unpin(b, false);
+				if (r >= 0) {
+					return;
+				}
+				// no more records in this block
 				b++;
-				r = -1;
-				findNext();
+				r = 0;
 			}
 		}
 
 		public boolean hasNext() {
-			return b <= nb || r < nr;
+			return b <= nb;
 		}
 
 		public Record next() {
-			// block b is currently in the buffer
-			int index = recordLocation(r);
-			rec.deserialize(buffer.buffer, index);
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			BlockBuffer buffer = pool.pin(b);
+			rec.deserialize(buffer.buffer, recordLocation(r));
+			pool.unpin(b, false);
 			findNext();
 			return rec;
 		}
@@ -543,28 +2180,30 @@ public class HeapDB implements DB, Iterable<Record> {
 		StringBuffer sb = new StringBuffer();
 		Record rec = schema.blankRecord();
 		
-		// read and print the block bitmap
-		bf.read(bitmapBlock, blockmapBuffer);
-		sb.append("Block bitmap:  " + blockMap);
+		// print the block bitmap
+		sb.append("Block bitmap:  " + freeMap);
 
-		for (int blockNum = bitmapBlock + 1; blockNum <= bf.getLastBlockIndex(); blockNum++) {
-			bf.read(blockNum, buffer);
+		for (long blockNum = bitmapBlock + 1; blockNum <= bf.getLastBlockIndex(); blockNum++) {
+			if (freeMap.isMapBlock(blockNum)) {
+				continue;
+			}
+			BlockBuffer buffer = pool.pin(blockNum);
+			Bitmap recMap = recordMap(buffer);
 			// print the record bitmap of block 
 			sb.append("Block " + blockNum + "\n");
 			sb.append("Record bitmap: " + recMap + "\n");
 			int recsOnLine = 0;
-			for (int recNum = 0; recNum < recMap.size(); recNum++) {
-				if (recMap.getBit(recNum)) {
-					// record j is present; check its key value
-					int loc = recordLocation(recNum);
-					rec.deserialize(buffer.buffer, loc);
-					sb.append(rec);
-					recsOnLine++;
-					if (recsOnLine % 16 == 0) {
-						sb.append("\n");
-					}
+			for (int recNum = recMap.nextSetBit(0); recNum >= 0; recNum = recMap.nextSetBit(recNum + 1)) {
+				// record j is present; check its key value
+				int loc = recordLocation(recNum);
+				rec.deserialize(buffer.buffer, loc);
+				sb.append(rec);
+				recsOnLine++;
+				if (recsOnLine % 16 == 0) {
+					sb.append("\n");
 				}
 			}
+			pool.unpin(blockNum, false);
 			sb.append("\n");
 		}
 		return sb.toString();
@@ -0,0 +1,183 @@
+package disk_store;
+
+import java.util.Arrays;
+
+/**
+ * Collects the key/record ID pairs for a new index during a scan of a
+ * heap, and then builds the index from them all at once.
+ *
+ * The pairs are kept in primitive arrays.  To build the index they are
+ * sorted by key (with a parallel sort), equal pairs are merged into one
+ * entry with a count, and the sorted entries are loaded into the index
+ * in one pass.  This is much faster than inserting the pairs one at a
+ * time, especially for indexes that are kept in order.
+ *
+ * Pairs must be added in order of record ID, as they are found by a
+ * scan of the heap from its first block to its last.  A builder can
+ * also collect the pairs of a batch of new records, in any order, and
+ * insert them into an existing index in order by key.
+ *
+ */
+
+public class IndexBuilder {
+
+	private static final int initialCapacity = 1024;
+
+	private int[] keys;
+	private long[] rids;
+	private int n;		// number of pairs added
+
+	/**
+	 * Create a builder with no pairs.
+	 */
+	public IndexBuilder() {
+		keys = new int[initialCapacity];
+		rids = new long[initialCapacity];
+		n = 0;
+	}
+
+	/**
+	 * Add a key/rid pair.  For build(), the record ID must be at
+	 * least that of the pair added before.
+	 * @param key value of a search key
+	 * @param rid a record ID
+	 */
+	public void add(int key, long rid) {
+		if (n == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * n);
+			rids = Arrays.copyOf(rids, 2 * n);
+		}
+		keys[n] = key;
+		rids[n] = rid;
+		n++;
+	}
+
+	/**
+	 * Add all the pairs of another builder.  Its record IDs must be
+	 * at least those of the pairs already added, as they are when the
+	 * builders hold the pairs of consecutive ranges of blocks.
+	 * @param other
+	 */
+	public void addAll(IndexBuilder other) {
+		if (n + other.n > keys.length) {
+			int capacity = Math.max(2 * keys.length, n + other.n);
+			keys = Arrays.copyOf(keys, capacity);
+			rids = Arrays.copyOf(rids, capacity);
+		}
+		System.arraycopy(other.keys, 0, keys, n, other.n);
+		System.arraycopy(other.rids, 0, rids, n, other.n);
+		n += other.n;
+	}
+	
+	/**
+	 * Remove each pair whose key is that of a pair with a smaller
+	 * record ID, and return the record IDs of the pairs removed.  The
+	 * pairs must have been added in order of record ID.
+	 */
+	public long[] removeDuplicateKeys() {
+		// in key order, the first pair with each key has the smallest
+		// record ID
+		long[] order = sortedOrder();
+		boolean[] dup = new boolean[n];
+		int numDups = 0;
+		for (int j = 1; j < n; j++) {
+			if ((int) (order[j] >> 32) == (int) (order[j - 1] >> 32)) {
+				dup[(int) order[j]] = true;
+				numDups++;
+			}
+		}
+		long[] removed = new long[numDups];
+		int m = 0;
+		int d = 0;
+		for (int i = 0; i < n; i++) {
+			if (dup[i]) {
+				removed[d++] = rids[i];
+			} else {
+				keys[m] = keys[i];
+				rids[m] = rids[i];
+				m++;
+			}
+		}
+		n = m;
+		return removed;
+	}
+	
+	/**
+	 * Return the number of pairs added.
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Put all the pairs that were added into the given index, which
+	 * should be empty.
+	 * @param index
+	 */
+	public void build(DBIndex index) {
+		// since the pairs were added in order of record ID, sorting them
+		// by key and position also sorts the pairs with the same key by
+		// record ID
+		long[] order = sortedOrder();
+
+		// merge equal pairs
+		int[] sortedKeys = new int[n];
+		long[] sortedRids = new long[n];
+		int[] counts = new int[n];
+		int m = 0;
+		for (int j = 0; j < n; j++) {
+			int i = (int) order[j];
+			int key = keys[i];
+			long rid = rids[i];
+			if (m > 0 && sortedKeys[m - 1] == key && sortedRids[m - 1] == rid) {
+				counts[m - 1]++;
+			} else {
+				sortedKeys[m] = key;
+				sortedRids[m] = rid;
+				counts[m] = 1;
+				m++;
+			}
+		}
+
+		if (index instanceof BTreeIndex) {
+			((BTreeIndex) index).load(sortedKeys, sortedRids, counts, m);
+		} else if (index instanceof HashIndex) {
+			((HashIndex) index).load(sortedKeys, sortedRids, counts, m);
+		} else if (index instanceof DiskBTreeIndex) {
+			((DiskBTreeIndex) index).load(sortedKeys, sortedRids, counts, m);
+		} else {
+			for (int j = 0; j < m; j++) {
+				for (int c = 0; c < counts[j]; c++) {
+					index.insert(sortedKeys[j], sortedRids[j]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Insert all the pairs that were added into the given index, which
+	 * need not be empty, in order by key.  Inserting in key order keeps
+	 * an ordered index's recent nodes in the cache.  For this method
+	 * the pairs need not have been added in order of record ID.
+	 * @param index
+	 */
+	public void insertInto(DBIndex index) {
+		long[] order = sortedOrder();
+		for (int j = 0; j < n; j++) {
+			int i = (int) order[j];
+			index.insert(keys[i], rids[i]);
+		}
+	}
+
+	// return the positions of the pairs, in order by key and then by
+	// position.  Each is packed in a long with the key in the high half,
+	// and the position in the low half
+	private long[] sortedOrder() {
+		long[] order = new long[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = ((long) keys[i] << 32) | i;
+		}
+		Arrays.parallelSort(order);
+		return order;
+	}
+}
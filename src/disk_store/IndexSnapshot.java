@@ -0,0 +1,198 @@
+package disk_store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A snapshot of the in-memory indexes of a heap database, written when
+ * the database is closed so that the indexes can be loaded when it is
+ * opened again, instead of being rebuilt by scanning the heap.
+ *
+ * File layout:
+ * - an int magic number
+ * - a long giving the epoch of the heap file the snapshot was taken of
+ * - an int giving the number of indexes
+ * - for each index: an int field number, an int index type (see
+ *   HeapDB), an int number n of entries, and n entries of (key int,
+ *   record ID long, count int).  The entries of an ordered index are
+ *   in order by key and then record ID.
+ * - a long CRC-32 checksum of everything before it
+ *
+ * A snapshot is only used if its checksum is right and its epoch is
+ * the heap file's current epoch.  HeapDB changes the epoch every time
+ * the heap is opened, so a snapshot left over from a run that did not
+ * close the database is never used.
+ *
+ */
+
+public class IndexSnapshot {
+	
+	private static final int magic = 0x534e4150;	// "SNAP"
+	private static final int entrySize = Integer.BYTES + Long.BYTES + Integer.BYTES;
+	
+	/**
+	 * Write a snapshot of the given indexes.  Only HashIndex and
+	 * BTreeIndex indexes are included; other entries of the array are
+	 * skipped.  The snapshot is written to a temporary file that then
+	 * replaces the old snapshot, so a crash part way through leaves
+	 * the old snapshot, which will not match the epoch.
+	 * @param filename name of the snapshot file
+	 * @param epoch the current epoch of the heap file
+	 * @param indexes the indexes of a heap database, by field number
+	 * @param types the index type of each index, or 0 to skip it
+	 */
+	public static void write(String filename, long epoch, DBIndex[] indexes, int[] types) {
+		Path tempFile = Paths.get(filename + ".tmp");
+		CRC32 crc = new CRC32();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new CheckedOutputStream(new FileOutputStream(tempFile.toFile()), crc)))) {
+			int numIndexes = 0;
+			for (int fieldNum = 0; fieldNum < indexes.length; fieldNum++) {
+				if (types[fieldNum] != 0) {
+					numIndexes++;
+				}
+			}
+			out.writeInt(magic);
+			out.writeLong(epoch);
+			out.writeInt(numIndexes);
+	
+			for (int fieldNum = 0; fieldNum < indexes.length; fieldNum++) {
+				if (types[fieldNum] == 0) {
+					continue;
+				}
+				int n;
+				int[] keys, counts;
+				long[] blockNums;
+				if (indexes[fieldNum] instanceof HashIndex) {
+					HashIndex index = (HashIndex) indexes[fieldNum];
+					n = index.numEntries();
+					keys = new int[n];
+					blockNums = new long[n];
+					counts = new int[n];
+					index.entries(keys, blockNums, counts);
+				} else if (indexes[fieldNum] instanceof BTreeIndex) {
+					BTreeIndex index = (BTreeIndex) indexes[fieldNum];
+					n = index.numEntries();
+					keys = new int[n];
+					blockNums = new long[n];
+					counts = new int[n];
+					index.entries(keys, blockNums, counts);
+				} else {
+					throw new IllegalArgumentException("cannot take a snapshot of "+indexes[fieldNum].getClass().getName());
+				}
+				out.writeInt(fieldNum);
+				out.writeInt(types[fieldNum]);
+				out.writeInt(n);
+				for (int i = 0; i < n; i++) {
+					out.writeInt(keys[i]);
+					out.writeLong(blockNums[i]);
+					out.writeInt(counts[i]);
+				}
+			}
+			out.flush();
+			out.writeLong(crc.getValue());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		try {
+			Files.move(tempFile, Paths.get(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Load the indexes in a snapshot into the given (empty) indexes.
+	 * The snapshot file is memory mapped.  The snapshot must hold
+	 * exactly the indexes with a nonzero type, with those types.
+	 * @param filename name of the snapshot file
+	 * @param epoch the current epoch of the heap file
+	 * @param indexes empty indexes to load, by field number
+	 * @param types the index type of each index, or 0 if none
+	 * @return true if the indexes were loaded, or false if there is no
+	 * snapshot or it is out of date or damaged; in that case the
+	 * indexes may be partly loaded, and should be discarded
+	 */
+	public static boolean read(String filename, long epoch, DBIndex[] indexes, int[] types) {
+		if (!new File(filename).exists()) {
+			return false;
+		}
+		try (FileChannel fc = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long sz = fc.size();
+			int headerSize = Integer.BYTES + Long.BYTES + Integer.BYTES;
+			if (sz < headerSize + Long.BYTES || sz > Integer.MAX_VALUE) {
+				return false;
+			}
+			MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, sz);
+			int end = (int) sz - Long.BYTES;
+	
+			// check the checksum, then the header
+			CRC32 crc = new CRC32();
+			buf.limit(end);
+			crc.update(buf);
+			buf.limit((int) sz);
+			if (crc.getValue() != buf.getLong(end)) {
+				return false;
+			}
+			if (buf.getInt(0) != magic || buf.getLong(Integer.BYTES) != epoch) {
+				return false;
+			}
+	
+			int numIndexes = buf.getInt(Integer.BYTES + Long.BYTES);
+			int numExpected = 0;
+			for (int type : types) {
+				if (type != 0) {
+					numExpected++;
+				}
+			}
+			if (numIndexes != numExpected) {
+				return false;
+			}
+	
+			int pos = headerSize;
+			for (int k = 0; k < numIndexes; k++) {
+				int fieldNum = buf.getInt(pos);
+				int type = buf.getInt(pos + Integer.BYTES);
+				int n = buf.getInt(pos + 2 * Integer.BYTES);
+				pos += 3 * Integer.BYTES;
+				if (fieldNum < 0 || fieldNum >= types.length || types[fieldNum] != type
+						|| n < 0 || pos + (long) n * entrySize > end) {
+					return false;
+				}
+				int[] keys = new int[n];
+				long[] blockNums = new long[n];
+				int[] counts = new int[n];
+				for (int i = 0; i < n; i++) {
+					keys[i] = buf.getInt(pos);
+					blockNums[i] = buf.getLong(pos + Integer.BYTES);
+					counts[i] = buf.getInt(pos + Integer.BYTES + Long.BYTES);
+					pos += entrySize;
+				}
+				if (indexes[fieldNum] instanceof HashIndex) {
+					((HashIndex) indexes[fieldNum]).load(keys, blockNums, counts, n);
+				} else if (indexes[fieldNum] instanceof BTreeIndex) {
+					((BTreeIndex) indexes[fieldNum]).load(keys, blockNums, counts, n);
+				} else {
+					return false;
+				}
+			}
+			return pos == end;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+}
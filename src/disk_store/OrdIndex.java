@@ -2,7 +2,9 @@ package disk_store;
 
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * An ordered index.  Duplicate search key values are allowed,
@@ -15,7 +17,7 @@ import java.util.List;
  */
 
 
-public class OrdIndex implements DBIndex {
+public class OrdIndex implements OrderedIndex {
 	// Solution 3!! 
 	private class Entry {
 		int key;	// search key 
@@ -23,7 +25,7 @@ public class OrdIndex implements DBIndex {
 	}
 	
 	private class BlockCount {
-		int blockNo; 
+		long blockNo; 
 		int count; 
 	}
 	
@@ -37,11 +39,11 @@ public class OrdIndex implements DBIndex {
 	}
 	
 	@Override
-	public List<Integer> lookup(int key) {
+	public List<Long> lookup(int key) {
 		// binary search of entries ArrayList
 		// return list of block numbers (no duplicates). 
 		// if key not found, return empty list
-		ArrayList<Integer> blockNoList = new ArrayList<>(); 
+		ArrayList<Long> blockNoList = new ArrayList<>(); 
 		int left = 0; 
 		int right = entries.size()-1; 
 		while (left <= right) {
@@ -60,6 +62,56 @@ public class OrdIndex implements DBIndex {
 		return blockNoList; // return an empty list 
 	}
 	
+	@Override
+	public List<Long> lookupRange(int lo, int hi) {
+		// binary search for the first entry with key >= lo, then
+		// read the entries in order until key > hi
+		ArrayList<Long> blockNoList = new ArrayList<>(); 
+		if (lo > hi) {
+			return blockNoList; 
+		}
+		for (int i = lookupIndex(lo); i < entries.size() && entries.get(i).key <= hi; i++) {
+			for (BlockCount blockCount: entries.get(i).blocks) {
+				blockNoList.add(blockCount.blockNo); 
+			}
+		}
+		return blockNoList; 
+	}
+	
+	@Override
+	public Iterator<Long> iterator(final boolean descending) {
+		// walk the entries ArrayList forward or backward, and the
+		// blocks of each entry in the same direction
+		return new Iterator<Long>() {
+			int e = descending ? entries.size() - 1 : 0;	// next entry
+			int b = descending ? lastBlock(e) : 0;	// next block of entry e
+			
+			public boolean hasNext() {
+				while (e >= 0 && e < entries.size()) {
+					if (b >= 0 && b < entries.get(e).blocks.size()) {
+						return true; 
+					}
+					e += descending ? -1 : 1; 
+					b = descending ? lastBlock(e) : 0; 
+				}
+				return false; 
+			}
+			
+			public Long next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException(); 
+				}
+				long blockNo = entries.get(e).blocks.get(b).blockNo; 
+				b += descending ? -1 : 1; 
+				return blockNo; 
+			}
+			
+			private int lastBlock(int e) {
+				return (e >= 0) ? entries.get(e).blocks.size() - 1 : -1; 
+			}
+		};
+	}
+	
 	public Integer lookupIndex(int key) {
 		int left = 0; 
 		int right = entries.size()-1; 
@@ -77,13 +129,13 @@ public class OrdIndex implements DBIndex {
 		return left; 
 	}
 	@Override
-	public void insert(int key, int blockNum) {
+	public void insert(int key, long blockNum) {
 		// if key exists
 		// 		if blockNo exists, increment count
 		// 		if blockNo DNE, create new BlockCount
 		// if key DNE
 		//		create new entry
-		List<Integer> blockNoList = lookup(key);  // one integer - index of entry that matches key/where key should be inserted
+		List<Long> blockNoList = lookup(key);  // one integer - index of entry that matches key/where key should be inserted
 		Integer index = lookupIndex(key); 
 		if (blockNoList.size() != 0) {
 			for (Entry entry: entries) {	//index into arraylist of key that it matches
@@ -123,13 +175,13 @@ public class OrdIndex implements DBIndex {
 	}
 
 	@Override
-	public void delete(int key, int blockNum) {
+	public void delete(int key, long blockNum) {
 		// lookup key
 		//		if key not found, should not occur. Ignore it.
 		//		else: decrement count for blockNo.
 		//			if count is now 0, remove the blockNo.
 		//			if there are no block number for this key, remove the key entry.
-		List<Integer> blockNoList = lookup(key); 
+		List<Long> blockNoList = lookup(key); 
 		if (blockNoList.size() == 0) {
 			return; 
 		} else {
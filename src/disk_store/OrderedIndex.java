@@ -0,0 +1,33 @@
+package disk_store;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A database index that keeps its entries in order by search key, so
+ * that it can also find the records whose search key is in a range.
+ *
+ */
+
+public interface OrderedIndex extends DBIndex {
+	
+	/**
+	 * Return a list of all the record IDs associated with search keys
+	 * from lo to hi, inclusive, in order by key (return an empty list
+	 * if there are none, or if lo > hi).
+	 * @param lo smallest value of the search key
+	 * @param hi largest value of the search key
+	 * @return
+	 */
+	public List<Long> lookupRange(int lo, int hi);
+	
+	/**
+	 * Return an iterator over the record IDs of all the entries of the
+	 * index, in order by key: ascending, or descending if descending is
+	 * true.  The entries are read as the iterator is used, and the
+	 * index should not be changed until then.
+	 * @param descending
+	 * @return
+	 */
+	public Iterator<Long> iterator(boolean descending);
+}
@@ -0,0 +1,367 @@
+package disk_store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A query over one table: the records that satisfy all of a set of
+ * predicates, projected onto a list of fields.  For example
+ *
+ *   new Query(db).select("b", "name").whereBetween("c", 3, 5).list()
+ *
+ * gives fields b and name of the records with c from 3 to 5.
+ *
+ * Predicates compare an int or string field with constants: =, <, >,
+ * between (inclusive) and in.  Strings are compared by their bytes, as
+ * unsigned values.  The predicates are tested on the bytes of each
+ * record in its block, through a RecordCursor, and only the fields of
+ * the projection of a matching record are decoded.  Blocks whose zones
+ * (see ZoneMap) rule out a predicate on an integer field are not read
+ * at all.
+ *
+ * A result row is a list of the projected fields, in the order they
+ * were selected; with no select, a row has all the fields of the
+ * schema.
+ *
+ */
+
+public class Query {
+	
+	private enum Op { EQ, LT, GT, BETWEEN, IN }
+	
+	// a predicate on one field; ints and strings (as bytes) are held
+	// in separate members
+	private static class Predicate {
+		int fieldNum;
+		Op op;
+		boolean isString;
+		int lo, hi;
+		int[] ints; // sorted, for IN
+		byte[] loBytes, hiBytes;
+		byte[][] strings; // for IN
+	
+		boolean test(RecordCursor cursor) {
+			if (!isString) {
+				int v = cursor.getInt(fieldNum);
+				switch (op) {
+				case EQ:
+					return v == lo;
+				case LT:
+					return v < lo;
+				case GT:
+					return v > lo;
+				case BETWEEN:
+					return v >= lo && v <= hi;
+				default:
+					return Arrays.binarySearch(ints, v) >= 0;
+				}
+			}
+			switch (op) {
+			case EQ:
+				return cursor.compareString(fieldNum, loBytes) == 0;
+			case LT:
+				return cursor.compareString(fieldNum, loBytes) < 0;
+			case GT:
+				return cursor.compareString(fieldNum, loBytes) > 0;
+			case BETWEEN:
+				return cursor.compareString(fieldNum, loBytes) >= 0 && cursor.compareString(fieldNum, hiBytes) <= 0;
+			default:
+				for (byte[] s : strings) {
+					if (cursor.compareString(fieldNum, s) == 0) {
+						return true;
+					}
+				}
+				return false;
+			}
+		}
+	
+		// return the smallest and largest value of an integer field that
+		// can satisfy the predicate, with lo > hi if none can
+		int[] range() {
+			switch (op) {
+			case EQ:
+				return new int[] { lo, lo };
+			case LT:
+				return (lo == Integer.MIN_VALUE) ? new int[] { 1, 0 } : new int[] { Integer.MIN_VALUE, lo - 1 };
+			case GT:
+				return (lo == Integer.MAX_VALUE) ? new int[] { 1, 0 } : new int[] { lo + 1, Integer.MAX_VALUE };
+			case BETWEEN:
+				return new int[] { lo, hi };
+			default:
+				return (ints.length == 0) ? new int[] { 1, 0 } : new int[] { ints[0], ints[ints.length - 1] };
+			}
+		}
+	}
+	
+	private HeapDB table;
+	private Schema schema;
+	private int[] projection;
+	private List<Predicate> predicates;
+	
+	/**
+	 * Create a query of all the records of the given table, with all
+	 * their fields.
+	 * @param table
+	 */
+	public Query(HeapDB table) {
+		this.table = table;
+		schema = table.getSchema();
+		projection = new int[schema.size()];
+		for (int i = 0; i < projection.length; i++) {
+			projection[i] = i;
+		}
+		predicates = new ArrayList<Predicate>();
+	}
+	
+	/**
+	 * Project the result onto the given fields.
+	 * @param fnames
+	 * @return this query
+	 */
+	public Query select(String... fnames) {
+		int[] p = new int[fnames.length];
+		for (int i = 0; i < fnames.length; i++) {
+			p[i] = fieldNum(fnames[i]);
+		}
+		projection = p;
+		return this;
+	}
+	
+	/**
+	 * Keep the records in which the given integer field equals value.
+	 */
+	public Query whereEquals(String fname, int value) {
+		return where(intPredicate(fname, Op.EQ, value, value));
+	}
+	
+	/**
+	 * Keep the records in which the given string field equals value.
+	 */
+	public Query whereEquals(String fname, String value) {
+		return where(stringPredicate(fname, Op.EQ, value, value));
+	}
+	
+	/**
+	 * Keep the records in which the given integer field is less than
+	 * value.
+	 */
+	public Query whereLess(String fname, int value) {
+		return where(intPredicate(fname, Op.LT, value, value));
+	}
+	
+	/**
+	 * Keep the records in which the given string field is less than
+	 * value.
+	 */
+	public Query whereLess(String fname, String value) {
+		return where(stringPredicate(fname, Op.LT, value, value));
+	}
+	
+	/**
+	 * Keep the records in which the given integer field is greater
+	 * than value.
+	 */
+	public Query whereGreater(String fname, int value) {
+		return where(intPredicate(fname, Op.GT, value, value));
+	}
+	
+	/**
+	 * Keep the records in which the given string field is greater
+	 * than value.
+	 */
+	public Query whereGreater(String fname, String value) {
+		return where(stringPredicate(fname, Op.GT, value, value));
+	}
+	
+	/**
+	 * Keep the records in which the given integer field is from lo to
+	 * hi, inclusive.
+	 */
+	public Query whereBetween(String fname, int lo, int hi) {
+		return where(intPredicate(fname, Op.BETWEEN, lo, hi));
+	}
+	
+	/**
+	 * Keep the records in which the given string field is from lo to
+	 * hi, inclusive.
+	 */
+	public Query whereBetween(String fname, String lo, String hi) {
+		return where(stringPredicate(fname, Op.BETWEEN, lo, hi));
+	}
+	
+	/**
+	 * Keep the records in which the given integer field is one of the
+	 * given values.
+	 */
+	public Query whereIn(String fname, int... values) {
+		Predicate p = intPredicate(fname, Op.IN, 0, 0);
+		p.ints = values.clone();
+		Arrays.sort(p.ints);
+		return where(p);
+	}
+	
+	/**
+	 * Keep the records in which the given string field is one of the
+	 * given values.
+	 */
+	public Query whereIn(String fname, String... values) {
+		Predicate p = stringPredicate(fname, Op.IN, "", "");
+		p.strings = new byte[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			p.strings[i] = values[i].getBytes(StringUtils.charset);
+		}
+		return where(p);
+	}
+	
+	/**
+	 * Return a stream of the result rows.  The rows are found as the
+	 * stream is used, and the table should not be changed until then.
+	 */
+	public Stream<List<Field>> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+				new RowIterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+	
+	/**
+	 * Return a list of the result rows.
+	 */
+	public List<List<Field>> list() {
+		return stream().collect(Collectors.toList());
+	}
+	
+	/**
+	 * Return the number of records that satisfy the predicates.  No
+	 * fields are decoded.
+	 */
+	public long count() {
+		RecordCursor cursor = scan();
+		long n = 0;
+		while (cursor.next()) {
+			if (matches(cursor)) {
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	// An Iterator over the result rows, which decodes only the fields
+	// of the projection of the matching records
+	private class RowIterator implements Iterator<List<Field>> {
+		RecordCursor cursor = scan();
+		boolean onMatch = advance();
+	
+		// move the cursor to the next matching record
+		private boolean advance() {
+			while (cursor.next()) {
+				if (matches(cursor)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	
+		public boolean hasNext() {
+			return onMatch;
+		}
+	
+		public List<Field> next() {
+			if (!onMatch) {
+				throw new NoSuchElementException();
+			}
+			List<Field> row = new ArrayList<Field>(projection.length);
+			for (int fieldNum : projection) {
+				FieldType ft = schema.getType(fieldNum);
+				if (ft instanceof IntType) {
+					row.add(new IntField(cursor.getInt(fieldNum)));
+				} else {
+					row.add(new StringField(cursor.getString(fieldNum), (StringType) ft));
+				}
+			}
+			onMatch = advance();
+			return row;
+		}
+	}
+	
+	// return a cursor over the records of the table, which skips the
+	// blocks that the zone map shows have no match for a predicate on
+	// an integer field
+	private RecordCursor scan() {
+		int m = 0;
+		for (Predicate p : predicates) {
+			if (!p.isString) {
+				m++;
+			}
+		}
+		int[] fieldNums = new int[m];
+		int[] lo = new int[m];
+		int[] hi = new int[m];
+		int k = 0;
+		for (Predicate p : predicates) {
+			if (!p.isString) {
+				int[] range = p.range();
+				fieldNums[k] = p.fieldNum;
+				lo[k] = range[0];
+				hi[k] = range[1];
+				k++;
+			}
+		}
+		return table.cursor(fieldNums, lo, hi);
+	}
+	
+	// return true if the record the cursor is on satisfies every
+	// predicate
+	private boolean matches(RecordCursor cursor) {
+		for (int i = 0; i < predicates.size(); i++) {
+			if (!predicates.get(i).test(cursor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private Query where(Predicate p) {
+		predicates.add(p);
+		return this;
+	}
+	
+	private Predicate intPredicate(String fname, Op op, int lo, int hi) {
+		Predicate p = new Predicate();
+		p.fieldNum = fieldNum(fname);
+		if (!(schema.getType(p.fieldNum) instanceof IntType)) {
+			throw new IllegalArgumentException("field " + fname + " is not of integer type");
+		}
+		p.op = op;
+		p.lo = lo;
+		p.hi = hi;
+		return p;
+	}
+	
+	private Predicate stringPredicate(String fname, Op op, String lo, String hi) {
+		Predicate p = new Predicate();
+		p.fieldNum = fieldNum(fname);
+		if (!(schema.getType(p.fieldNum) instanceof StringType)) {
+			throw new IllegalArgumentException("field " + fname + " is not of string type");
+		}
+		p.op = op;
+		p.isString = true;
+		p.loBytes = lo.getBytes(StringUtils.charset);
+		p.hiBytes = hi.getBytes(StringUtils.charset);
+		return p;
+	}
+	
+	private int fieldNum(String fname) {
+		int fieldNum = schema.getFieldIndex(fname);
+		if (fieldNum < 0) {
+			throw new IllegalArgumentException("Field '" + fname + "' not in schema.");
+		}
+		return fieldNum;
+	}
+}
@@ -0,0 +1,61 @@
+package disk_store;
+
+/**
+ * A cursor over the records of a database.  The cursor is a flyweight:
+ * it stands for the record it is on, and its field values are read
+ * from the bytes of the record's block only when they are asked for,
+ * so moving over records that are not wanted allocates nothing.  A
+ * Record is made only by getRecord().
+ *
+ * A new cursor is before the first record; next() moves it to each
+ * record in turn.  Fields are numbered as in the schema.
+ *
+ */
+
+public interface RecordCursor {
+	
+	/**
+	 * Move to the next record.
+	 * @return false if there are no more records
+	 */
+	public boolean next();
+	
+	/**
+	 * Return the value of an integer field of the current record.
+	 * @param fieldNum
+	 * @return
+	 */
+	public int getInt(int fieldNum);
+	
+	/**
+	 * Compare a string field of the current record with the given
+	 * bytes (of a string, as given by String.getBytes with
+	 * StringUtils.charset), comparing bytes as unsigned values.  Nothing
+	 * is decoded.
+	 * @param fieldNum
+	 * @param bytes
+	 * @return a negative number, zero, or a positive number, as the
+	 * field is less than, equal to, or greater than the bytes
+	 */
+	public int compareString(int fieldNum, byte[] bytes);
+	
+	/**
+	 * Return the value of a string field of the current record.  This
+	 * makes a new String.
+	 * @param fieldNum
+	 * @return
+	 */
+	public String getString(int fieldNum);
+	
+	/**
+	 * Return a new Record holding the current record.
+	 * @return
+	 */
+	public Record getRecord();
+	
+	/**
+	 * Return the record ID of the current record.
+	 * @return
+	 */
+	public long getRecordId();
+}
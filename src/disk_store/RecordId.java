@@ -0,0 +1,56 @@
+package disk_store;
+
+/**
+ * Record IDs.  A record ID names the slot of a record in a heap file:
+ * the number of the block holding the record and the record's number
+ * within the block, packed in a long.  The block number is in the high
+ * bits and the slot number in the low slotBits bits, so record IDs are
+ * in the same order as (block, slot) pairs.
+ *
+ * Indexes map search key values to record IDs, so a record found by an
+ * index can be read without searching its block.
+ *
+ */
+
+public class RecordId {
+	
+	static final int slotBits = 16;
+	static final int maxSlots = 1 << slotBits;
+	
+	private RecordId() {
+	}
+	
+	/**
+	 * Return the record ID of the given slot of the given block.
+	 * @param blockNum a DB block number
+	 * @param slotNum a record number within the block
+	 * @return
+	 */
+	public static long of(long blockNum, int slotNum) {
+		if (slotNum < 0 || slotNum >= maxSlots) {
+			throw new IllegalArgumentException("slot number out of range: " + slotNum);
+		}
+		return (blockNum << slotBits) | slotNum;
+	}
+	
+	/**
+	 * Return the block number of a record ID.
+	 */
+	public static long blockNum(long rid) {
+		return rid >>> slotBits;
+	}
+	
+	/**
+	 * Return the slot number of a record ID.
+	 */
+	public static int slotNum(long rid) {
+		return (int) (rid & (maxSlots - 1));
+	}
+	
+	/**
+	 * Return a readable form of a record ID, as (block, slot).
+	 */
+	public static String toString(long rid) {
+		return "(" + blockNum(rid) + ", " + slotNum(rid) + ")";
+	}
+}
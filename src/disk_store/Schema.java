@@ -92,6 +92,22 @@ public class Schema extends Type {
 		return fnames.get(i);
 	}
 	
+	/**
+	 * return the position of the ith field within a serialized record
+	 * @param i
+	 * @return
+	 */
+	public int getOffset(int i) {
+		if (i < 0 || i >= ftypes.size()) {
+			throw new IllegalArgumentException("No field i in schema: "+this);
+		}
+		int offset = 0;
+		for (int j = 0; j < i; j++) {
+			offset += ftypes.get(j).getLen();
+		}
+		return offset;
+	}
+	
 	/**
 	 * return the number of fields in the record type
 	 * @return
@@ -153,6 +169,13 @@ public class Schema extends Type {
 		}
 	}
 	
+	/**
+	 * return the number of bytes written by serialize
+	 */
+	public int serializedSize() {
+		return Integer.BYTES + fnames.size() * (maxFieldNameLength + 2 * Integer.BYTES);
+	}
+	
 	/**
 	 * create a RecordType from the bytes at the given buffer, at the given position
 	 */
@@ -1,9 +1,14 @@
 package disk_store;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 public class StringUtils {
 	
+	// the encoding of strings in records
+	public static final Charset charset = StandardCharsets.UTF_8;
+	
 	// write the string s to the buffer at position index
 	public static void serializeString(String s, ByteBuffer buf, int index) {
 		// write the length of the string followed by the bytes in the string
@@ -12,7 +17,7 @@ public class StringUtils {
 		buf.position(index);
 		
 		// see stackoverflow.com/questions/24633980/java-nio-bytebuffer-put-and-get-strings
-		byte[] bytes = s.getBytes();
+		byte[] bytes = s.getBytes(charset);
 		buf.putInt(bytes.length);
 		buf.put(bytes);
 	}
@@ -26,7 +31,7 @@ public class StringUtils {
 		int len = buf.getInt();
 		byte[] bytes = new byte[len];
 		buf.get(bytes);
-		String s = new String(bytes);
+		String s = new String(bytes, charset);
 		return s;
 	}
 }
@@ -0,0 +1,216 @@
+package disk_store;
+
+import java.util.Arrays;
+
+/**
+ * A zone map of a heap file: for each data block, the smallest and
+ * largest value of each integer field in the block's records.  A scan
+ * for records with a field in a range can skip a block whose zone for
+ * the field does not overlap the range, without reading it.
+ *
+ * The zone of a block may be unknown, and then the block can't be
+ * skipped.  Zones are kept in memory only, so every zone is unknown
+ * when a database is opened; a zone is set when its block is created,
+ * or when a scan reads the block.  An insert widens the zone of its
+ * block.  A delete leaves the zone alone (it is still a bound on the
+ * values in the block), unless the deleted record had the smallest or
+ * largest value of a field, and then the zone becomes unknown, to be
+ * set again by the next scan that reads the block.
+ *
+ * To count the blocks a scan would read without looking at every zone,
+ * the blocks are also taken in groups of blocksPerGroup, and each group
+ * has a range of each field that takes in the zones of all its known
+ * blocks.  A group's range is only ever widened, so it may be wider
+ * than the zones now in the group, but a group whose range does not
+ * overlap a scan's range can be counted without looking at its zones.
+ *
+ */
+
+public class ZoneMap {
+	
+	private int numFields;
+	private boolean[] isInt;
+	private int[] mins, maxs; // of field i of block b at b*numFields + i
+	private boolean[] known; // known[b] is true if the zone of block b is known
+	
+	static final int blocksPerGroup = 64;
+	private int[] groupMins, groupMaxs; // of field i of group g at g*numFields + i
+	private int[] numKnown; // number of blocks of each group with known zones
+	
+	/**
+	 * Create a zone map for a heap file with the given schema, with
+	 * every zone unknown.
+	 * @param schema
+	 */
+	public ZoneMap(Schema schema) {
+		numFields = schema.size();
+		isInt = new boolean[numFields];
+		for (int i = 0; i < numFields; i++) {
+			isInt[i] = schema.getType(i) instanceof IntType;
+		}
+		known = new boolean[0];
+		mins = new int[0];
+		maxs = new int[0];
+		groupMins = new int[0];
+		groupMaxs = new int[0];
+		numKnown = new int[0];
+		ensureCapacity(0);
+	}
+	
+	/**
+	 * Return true if the zone of the given block is known.
+	 */
+	public boolean isKnown(long blockNum) {
+		return blockNum < known.length && known[(int) blockNum];
+	}
+	
+	/**
+	 * Make the zone of the given block known, and empty, as for a block
+	 * with no records.  Records are then added with add().
+	 */
+	public void clear(long blockNum) {
+		ensureCapacity(blockNum);
+		int b = (int) blockNum;
+		if (!known[b]) {
+			known[b] = true;
+			numKnown[b / blocksPerGroup]++;
+		}
+		Arrays.fill(mins, b * numFields, (b + 1) * numFields, Integer.MAX_VALUE);
+		Arrays.fill(maxs, b * numFields, (b + 1) * numFields, Integer.MIN_VALUE);
+	}
+	
+	/**
+	 * Make the zone of the given block unknown.
+	 */
+	public void forget(long blockNum) {
+		if (isKnown(blockNum)) {
+			known[(int) blockNum] = false;
+			numKnown[(int) blockNum / blocksPerGroup]--;
+		}
+	}
+	
+	/**
+	 * Widen the zone of the given block, if it is known, to take in the
+	 * value of the given integer field of a record in the block.
+	 */
+	public void add(long blockNum, int fieldNum, int value) {
+		if (isKnown(blockNum)) {
+			int j = (int) blockNum * numFields + fieldNum;
+			if (value < mins[j]) {
+				mins[j] = value;
+			}
+			if (value > maxs[j]) {
+				maxs[j] = value;
+			}
+			int g = (int) blockNum / blocksPerGroup * numFields + fieldNum;
+			if (value < groupMins[g]) {
+				groupMins[g] = value;
+			}
+			if (value > groupMaxs[g]) {
+				groupMaxs[g] = value;
+			}
+		}
+	}
+	
+	/**
+	 * Widen the zone of the given block, if it is known, to take in a
+	 * record added to the block.
+	 */
+	public void add(long blockNum, Record rec) {
+		if (isKnown(blockNum)) {
+			for (int i = 0; i < numFields; i++) {
+				if (isInt[i]) {
+					add(blockNum, i, ((IntField) rec.get(i)).getValue());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Account for a record removed from the given block: if it had the
+	 * smallest or largest value of a field in the block, the zone of the
+	 * block becomes unknown.
+	 */
+	public void remove(long blockNum, Record rec) {
+		if (isKnown(blockNum)) {
+			int base = (int) blockNum * numFields;
+			for (int i = 0; i < numFields; i++) {
+				if (isInt[i]) {
+					int value = ((IntField) rec.get(i)).getValue();
+					if (value == mins[base + i] || value == maxs[base + i]) {
+						forget(blockNum);
+						return;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Return false if the given block is known to have no record whose
+	 * given integer field is from lo to hi, inclusive.
+	 */
+	public boolean mightContain(long blockNum, int fieldNum, int lo, int hi) {
+		if (lo > hi) {
+			return false;
+		}
+		if (!isKnown(blockNum)) {
+			return true;
+		}
+		// an empty zone has mins[j] > maxs[j]
+		int j = (int) blockNum * numFields + fieldNum;
+		return mins[j] <= maxs[j] && mins[j] <= hi && maxs[j] >= lo;
+	}
+	
+	/**
+	 * Return the number of blocks from first to last, inclusive, that
+	 * might have a record whose given integer field is from lo to hi:
+	 * those whose zones are unknown or overlap the range.
+	 */
+	public long countMightContain(int fieldNum, int lo, int hi, long first, long last) {
+		if (lo > hi || first > last) {
+			return 0;
+		}
+		long n = 0;
+		long b = first;
+		while (b <= last && b < known.length) {
+			int g = (int) b / blocksPerGroup;
+			long start = (long) g * blocksPerGroup;
+			long end = start + blocksPerGroup - 1;
+			int j = g * numFields + fieldNum;
+			if (b == start && end <= last && (groupMins[j] > hi || groupMaxs[j] < lo)) {
+				// no known zone of the group overlaps the range
+				n += blocksPerGroup - numKnown[g];
+				b = end + 1;
+			} else {
+				for (; b <= Math.min(end, last); b++) {
+					if (mightContain(b, fieldNum, lo, hi)) {
+						n++;
+					}
+				}
+			}
+		}
+		if (b <= last) {
+			n += last - b + 1; // blocks past the map, whose zones are unknown
+		}
+		return n;
+	}
+	
+	// make room for the zone of the given block, in whole groups
+	private void ensureCapacity(long blockNum) {
+		if (blockNum >= known.length) {
+			long wanted = Math.max(2L * known.length, blockNum + 1);
+			int numGroups = (int) ((wanted + blocksPerGroup - 1) / blocksPerGroup);
+			int oldGroups = numKnown.length;
+			int capacity = numGroups * blocksPerGroup;
+			known = Arrays.copyOf(known, capacity);
+			mins = Arrays.copyOf(mins, capacity * numFields);
+			maxs = Arrays.copyOf(maxs, capacity * numFields);
+			numKnown = Arrays.copyOf(numKnown, numGroups);
+			groupMins = Arrays.copyOf(groupMins, numGroups * numFields);
+			groupMaxs = Arrays.copyOf(groupMaxs, numGroups * numFields);
+			Arrays.fill(groupMins, oldGroups * numFields, numGroups * numFields, Integer.MAX_VALUE);
+			Arrays.fill(groupMaxs, oldGroups * numFields, numGroups * numFields, Integer.MIN_VALUE);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import disk_store.BTreeIndex;
+
+class BTreeIndexTest {
+	
+	BTreeIndex idx;
+	
+	@BeforeEach
+	void init() {
+		// create the index
+		idx = new BTreeIndex();
+		
+		// insert some elements
+		idx.insert(1, 1);
+		idx.insert(1, 2);
+		idx.insert(2, 1);
+		idx.insert(2, 2);
+		idx.insert(2, 3);
+		idx.insert(3, 1);
+		idx.insert(4, 2);
+	}
+
+	@Test
+	void testLookup() {
+		List<Long> result = idx.lookup(1);
+		List<Long> expected = Arrays.asList(1L,2L);
+		assertTrue(result.size() == 2 && result.containsAll(expected));
+		
+		result = idx.lookup(2);
+		expected = Arrays.asList(1L,2L,3L);
+		assertTrue(result.size() == 3 && result.containsAll(expected));
+		
+		result = idx.lookup(6);
+		assertTrue(result.size() == 0);
+	}
+	
+	@Test
+	void testLookupRange() {
+		List<Long> result = idx.lookupRange(2, 3);
+		assertEquals(Arrays.asList(1L,2L,3L,1L), result);
+		
+		result = idx.lookupRange(0, 10);
+		assertEquals(7, result.size());
+		assertEquals(Arrays.asList(2L), idx.lookupRange(4, 4));
+		assertTrue(idx.lookupRange(5, 10).isEmpty());
+		assertTrue(idx.lookupRange(3, 2).isEmpty());
+		
+		// ranges that span many leaves
+		for (int key = 100; key < 1100; key++) {
+			idx.insert(key, key % 10);
+			idx.insert(key, 10 + key % 10);
+		}
+		result = idx.lookupRange(250, 749);
+		assertEquals(1000, result.size());
+		assertEquals(Long.valueOf(0), result.get(0));
+		assertEquals(Long.valueOf(19), result.get(999));
+		assertEquals(2000, idx.lookupRange(Integer.MIN_VALUE, Integer.MAX_VALUE).size() - 7);
+	}
+	
+	@Test
+	void testIterator() {
+		List<Long> result = new ArrayList<>();
+		idx.iterator(false).forEachRemaining(result::add);
+		assertEquals(Arrays.asList(1L,2L,1L,2L,3L,1L,2L), result);
+		
+		result.clear();
+		idx.iterator(true).forEachRemaining(result::add);
+		assertEquals(Arrays.asList(2L,1L,3L,2L,1L,2L,1L), result);
+		
+		// many leaves, some emptied by deletes
+		for (int key = 100; key < 2100; key++) {
+			idx.insert(key, key);
+		}
+		for (int key = 500; key < 1500; key++) {
+			idx.delete(key, key);
+		}
+		Iterator<Long> it = idx.iterator(true);
+		assertEquals(Long.valueOf(2099), it.next());
+		assertEquals(Long.valueOf(2098), it.next());
+		result.clear();
+		idx.iterator(false).forEachRemaining(result::add);
+		assertEquals(1007, result.size());
+		assertEquals(Long.valueOf(499), result.get(406));
+		assertEquals(Long.valueOf(1500), result.get(407));
+	}
+	
+	@Test
+	void testDelete() {
+		idx.delete(2, 1);
+		assertTrue(idx.size() == 6);
+         
+		idx.delete(1, 1);
+		assertTrue(idx.size() == 5);
+		
+		idx.delete(1, 1);
+		assertTrue(idx.size() == 5);
+		
+		idx.delete(2, 2);
+		idx.delete(2, 3);
+		List<Long> result = idx.lookup(2);
+		assertTrue(result.size() == 0);
+	}
+	
+	@Test
+	void testDeleteLookup() {
+		idx.insert(2, 1);
+		idx.delete(2, 1);
+		List<Long> result = idx.lookup(2);
+		List<Long> expected = Arrays.asList(1L,2L,3L);
+		assertTrue(result.size() == 3 && result.containsAll(expected));
+		
+		idx.delete(2, 1);
+		result = idx.lookup(2);
+		expected = Arrays.asList(2L,3L);
+		assertTrue(result.size() == 2 && result.containsAll(expected));
+	}
+	
+	// random inserts and deletes in a tree of small nodes, so that
+	// nodes are split, borrowed from and merged at every level; compare
+	// with a TreeMap of key to block numbers
+	@Test
+	void testRandomOps() {
+		Random rand = new Random(42);
+		BTreeIndex tree = new BTreeIndex(4);
+		TreeMap<Integer, List<Long>> expected = new TreeMap<>();
+		for (int i = 0; i < 50000; i++) {
+			int key = rand.nextInt(2000);
+			long blockNum = rand.nextInt(4);
+			List<Long> blocks = expected.get(key);
+			if (blocks != null && blocks.contains(blockNum) && rand.nextInt(3) > 0) {
+				tree.delete(key, blockNum);
+				blocks.remove(blockNum);
+				if (blocks.isEmpty()) {
+					expected.remove(key);
+				}
+			} else if (blocks == null || !blocks.contains(blockNum)) {
+				tree.insert(key, blockNum);
+				expected.computeIfAbsent(key, k -> new ArrayList<>()).add(blockNum);
+			}
+		}
+		int n = 0;
+		for (int key = -1; key <= 2000; key++) {
+			List<Long> blocks = expected.get(key);
+			List<Long> result = tree.lookup(key);
+			if (blocks == null) {
+				assertTrue(result.isEmpty());
+			} else {
+				assertTrue(result.size() == blocks.size() && result.containsAll(blocks));
+				n += blocks.size();
+			}
+		}
+		assertEquals(n, tree.size());
+		
+		// empty the tree
+		for (Integer key : expected.keySet()) {
+			for (Long blockNum : expected.get(key)) {
+				tree.delete(key, blockNum);
+			}
+		}
+		assertEquals(0, tree.size());
+		assertTrue(tree.lookup(expected.firstKey()).isEmpty());
+	}
+	
+	// build a tree of small nodes bottom up, then change it
+	@Test
+	void testLoad() {
+		int n = 1000;
+		int[] keys = new int[n];
+		long[] blockNums = new long[n];
+		int[] counts = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = i / 2;
+			blockNums[i] = i % 2;
+			counts[i] = 1 + i % 2;
+		}
+		BTreeIndex tree = new BTreeIndex(4);
+		tree.load(keys, blockNums, counts, n);
+		assertEquals(1500, tree.size());
+		List<Long> result = tree.lookup(250);
+		assertTrue(result.size() == 2 && result.containsAll(Arrays.asList(0L, 1L)));
+		
+		for (int key = 0; key < n / 2; key += 2) {
+			tree.delete(key, 0);
+			tree.insert(key + n, 5);
+		}
+		assertEquals(Arrays.asList(1L), tree.lookup(250));
+		assertEquals(Arrays.asList(0L, 1L), tree.lookup(251));
+		assertEquals(Arrays.asList(5L), tree.lookup(250 + n));
+		
+		assertThrows(IllegalStateException.class, () -> tree.load(keys, blockNums, counts, n));
+	}
+	
+}
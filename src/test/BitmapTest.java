@@ -2,6 +2,8 @@ package test;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.ByteBuffer;
+
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -96,5 +98,71 @@ class BitmapTest {
 		assertEquals(bmap.size(), 16);
 	}
 	
+	// test nextSetBit and nextClearBit across word boundaries
+	@Test
+	void nextSetAndClearBit() {
+		Bitmap bmap = new Bitmap(20);
+		bmap.setBit(3, true);
+		bmap.setBit(64, true);
+		bmap.setBit(159, true);
+		assertEquals(3, bmap.nextSetBit(0));
+		assertEquals(3, bmap.nextSetBit(3));
+		assertEquals(64, bmap.nextSetBit(4));
+		assertEquals(159, bmap.nextSetBit(65));
+		assertEquals(-1, bmap.nextSetBit(160));
+		
+		assertEquals(0, bmap.nextClearBit(0));
+		assertEquals(4, bmap.nextClearBit(3));
+		assertEquals(65, bmap.nextClearBit(64));
+		assertEquals(-1, bmap.nextClearBit(160));
+	}
+	
+	// test that a partial last word has no bits past the end of the map
+	@Test
+	void partialLastWord() {
+		Bitmap bmap = new Bitmap(13);
+		for (int i = 0; i < bmap.size() - 1; i++) {
+			bmap.setBit(i, true);
+		}
+		assertEquals(103, bmap.nextClearBit(0));
+		bmap.setBit(103, true);
+		assertEquals(-1, bmap.nextClearBit(0));
+		assertEquals(-1, bmap.firstZero());
+		assertEquals(104, bmap.cardinality());
+	}
+	
+	// test cardinality
+	@Test
+	void cardinality() {
+		Bitmap bmap = new Bitmap(new byte[] { 0x06, 0x0a, 0, 0, 0, 0, 0, 0, -0x01 } );
+		assertEquals(12, bmap.cardinality());
+	}
+	
+	// test and, or and andNot
+	@Test
+	void logicalOps() {
+		Bitmap a = new Bitmap(new byte[] { 0x0c, 0, 0, 0, 0, 0, 0, 0, 0x0c } );
+		Bitmap b = new Bitmap(new byte[] { 0x0a, 0, 0, 0, 0, 0, 0, 0, 0x0a } );
+		Bitmap c = new Bitmap(new byte[] { 0x0c, 0, 0, 0, 0, 0, 0, 0, 0x0c } );
+		Bitmap d = new Bitmap(new byte[] { 0x0c, 0, 0, 0, 0, 0, 0, 0, 0x0c } );
+		a.and(b);
+		c.or(b);
+		d.andNot(b);
+		assertEquals(new Bitmap(new byte[] { 0x08, 0, 0, 0, 0, 0, 0, 0, 0x08 }).toString(), a.toString());
+		assertEquals(new Bitmap(new byte[] { 0x0e, 0, 0, 0, 0, 0, 0, 0, 0x0e }).toString(), c.toString());
+		assertEquals(new Bitmap(new byte[] { 0x04, 0, 0, 0, 0, 0, 0, 0, 0x04 }).toString(), d.toString());
+	}
+	
+	// test a map stored in a ByteBuffer
+	@Test
+	void byteBufferMap() {
+		ByteBuffer buf = ByteBuffer.allocate(16);
+		Bitmap bmap = new Bitmap(buf, 10);
+		bmap.setBit(70, true);
+		assertEquals(70, bmap.nextSetBit(0));
+		assertEquals(0x02, buf.get(8));
+		assertEquals(0, buf.get(10));
+	}
+	
 	
-}
+}
\ No newline at end of file
@@ -0,0 +1,175 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import disk_store.BlockBuffer;
+import disk_store.BlockedFile;
+
+class BlockedFileTest {
+	
+	static String filename = "temp_blocked.txt";
+	static final int numThreads = 8;
+	static final int numBlocks = 400;
+	static final int opsPerThread = 5000;
+	
+	@BeforeEach
+	void init() {
+		new File(filename).delete();
+	}
+	
+	@AfterEach
+	void wrapup() {
+		new File(filename).delete();
+	}
+	
+	// fill the buffer with ints that identify the block and a version
+	static void fill(BlockBuffer buf, int blockNum, int version) {
+		for (int i = 0; i < 4096; i += 2 * Integer.BYTES) {
+			buf.putInt(i, blockNum);
+			buf.putInt(i + Integer.BYTES, version);
+		}
+	}
+	
+	// check that every int pair in the buffer has the given block number
+	// and the same version
+	static void check(BlockBuffer buf, int blockNum) {
+		int version = buf.getInt(Integer.BYTES);
+		for (int i = 0; i < 4096; i += 2 * Integer.BYTES) {
+			assertEquals(blockNum, buf.getInt(i));
+			assertEquals(version, buf.getInt(i + Integer.BYTES));
+		}
+	}
+	
+	// Many threads read and write random blocks at once.  Thread t owns
+	// the blocks with blockNum % (numThreads+1) == t, rewrites them with
+	// new versions, and checks that it reads back exactly the version it
+	// last wrote.  Blocks owned by no thread are never rewritten, and
+	// all threads read them.  A read or write that landed on the wrong
+	// block, for example because of a shared file position, would show
+	// up as a wrong block number or version.
+	void stress(boolean mapped) throws Exception {
+		BlockedFile bf = new BlockedFile(filename, mapped);
+		BlockBuffer buf = bf.getBuffer();
+		for (int b = 0; b < numBlocks; b++) {
+			fill(buf, b, 0);
+			bf.write(b, buf);
+		}
+		
+		ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		List<Future<?>> results = new ArrayList<>();
+		for (int t = 0; t < numThreads; t++) {
+			final int thread = t;
+			results.add(exec.submit(() -> {
+				Random rand = new Random(thread);
+				BlockBuffer tbuf = bf.getBuffer();
+				int[] versions = new int[numBlocks];	// last version written, by block
+				for (int n = 1; n <= opsPerThread; n++) {
+					int b = rand.nextInt(numBlocks);
+					int owner = b % (numThreads + 1);
+					if (owner == thread && rand.nextBoolean()) {
+						fill(tbuf, b, n);
+						bf.write(b, tbuf);
+						versions[b] = n;
+					} else if (owner == thread || owner == numThreads) {
+						bf.read(b, tbuf);
+						check(tbuf, b);
+						assertEquals(versions[b], tbuf.getInt(Integer.BYTES));
+					}
+				}
+			}));
+		}
+		for (Future<?> f : results) {
+			f.get();	// rethrows any assertion failure from a thread
+		}
+		exec.shutdown();
+		
+		assertEquals(numBlocks - 1, bf.getLastBlockIndex());
+		for (int b = 0; b < numBlocks; b++) {
+			bf.read(b, buf);
+			check(buf, b);
+		}
+		bf.close();
+	}
+	
+	@Test
+	void concurrentBlockAccess() throws Exception {
+		stress(false);
+	}
+	
+	@Test
+	void concurrentMappedBlockAccess() throws Exception {
+		stress(true);
+	}
+	
+	// Blocks past 2 GB and 4 GB are read and written at the right offsets.
+	// Block 2^20 starts at byte 2^32, which is 0 in 32-bit arithmetic,
+	// so writing it must not overwrite block 0.  The file is sparse, so
+	// this needs little real disk space.
+	void highBlocks(boolean mapped) {
+		long[] blockNums = { 0, 1, (1L << 19) - 1, 1L << 19, 1L << 20, (1L << 20) + 3, 5L << 20 };
+		BlockedFile bf = new BlockedFile(filename, mapped);
+		BlockBuffer buf = bf.getBuffer();
+		for (int i = 0; i < blockNums.length; i++) {
+			fill(buf, i, (int) (blockNums[i] >> 16));
+			bf.write(blockNums[i], buf);
+		}
+		long last = blockNums[blockNums.length - 1];
+		assertEquals(last, bf.getLastBlockIndex());
+		assertEquals((last + 1) * 4096, bf.size());
+		for (int i = 0; i < blockNums.length; i++) {
+			bf.read(blockNums[i], buf);
+			check(buf, i);
+			assertEquals((int) (blockNums[i] >> 16), buf.getInt(Integer.BYTES));
+		}
+		bf.close();
+		
+		bf = BlockedFile.open(filename, mapped);
+		assertEquals(last, bf.getLastBlockIndex());
+		bf.read(1L << 20, buf);
+		check(buf, 4);
+		bf.read(0, buf);
+		check(buf, 0);
+		bf.close();
+	}
+	
+	@Test
+	void sparseMultiGigabyteFile() {
+		highBlocks(false);
+	}
+	
+	@Test
+	void sparseMultiGigabyteMappedFile() {
+		highBlocks(true);
+	}
+	
+	// reopening a file finds the blocks written before it was closed
+	@Test
+	void reopen() {
+		BlockedFile bf = new BlockedFile(filename);
+		BlockBuffer buf = bf.getBuffer();
+		for (int b = 0; b < 10; b++) {
+			fill(buf, b, 1);
+			bf.write(b, buf);
+		}
+		bf.close();
+		
+		bf = BlockedFile.open(filename);
+		assertEquals(9, bf.getLastBlockIndex());
+		bf.read(7, buf);
+		check(buf, 7);
+		bf.close();
+	}
+
+}
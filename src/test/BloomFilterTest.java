@@ -0,0 +1,49 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import disk_store.BloomFilter;
+
+class BloomFilterTest {
+	
+	@Test
+	void testNoFalseNegatives() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (int key = 0; key < 10000; key++) {
+			filter.add(key * 7);
+		}
+		for (int key = 0; key < 10000; key++) {
+			assertTrue(filter.mightContain(key * 7));
+		}
+		assertEquals(10000, filter.count());
+		assertEquals(10000, filter.capacity());
+	}
+	
+	@Test
+	void testFalsePositiveRate() {
+		// keys not added are rarely reported, near the wanted rate
+		Random rand = new Random(42);
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.add(rand.nextInt() & ~1);	// even keys only
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 100000; i++) {
+			if (filter.mightContain(rand.nextInt() | 1)) {
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives < 2000);
+	}
+	
+	@Test
+	void testArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 0.01));
+		assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 0));
+		assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 1));
+	}
+}
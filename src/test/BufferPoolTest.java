@@ -0,0 +1,136 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import disk_store.BlockBuffer;
+import disk_store.BlockedFile;
+import disk_store.BufferPool;
+
+class BufferPoolTest {
+	
+	static String filename = "temp_pool.txt";
+	BlockedFile bf;
+	
+	@BeforeEach
+	void init() {
+		new File(filename).delete();
+		bf = new BlockedFile(filename);
+	}
+	
+	@AfterEach
+	void wrapup() {
+		bf.close();
+		new File(filename).delete();
+	}
+	
+	// create numBlocks blocks, each holding its block number in its first int
+	void createBlocks(BufferPool pool, int numBlocks) {
+		for (int i = 0; i < numBlocks; i++) {
+			BlockBuffer buf = pool.pinNew(i);
+			buf.putInt(0, i);
+			pool.unpin(i, true);
+		}
+	}
+	
+	// repeated pins of resident blocks do no I/O
+	@Test
+	void residentBlocks() {
+		BufferPool pool = new BufferPool(bf, 4);
+		createBlocks(pool, 4);
+		long reads = pool.getNumReads();
+		long writes = pool.getNumWrites();
+		for (int n = 0; n < 1000; n++) {
+			int i = n % 4;
+			BlockBuffer buf = pool.pin(i);
+			assertEquals(i, buf.getInt(0));
+			pool.unpin(i, false);
+		}
+		assertEquals(reads, pool.getNumReads());
+		assertEquals(writes, pool.getNumWrites());
+	}
+	
+	// changed blocks are written back when their frames are reused
+	@Test
+	void evictionWritesBack() {
+		BufferPool pool = new BufferPool(bf, 2);
+		createBlocks(pool, 10);
+		for (int i = 0; i < 10; i++) {
+			BlockBuffer buf = pool.pin(i);
+			assertEquals(i, buf.getInt(0));
+			buf.putInt(4, 100 + i);
+			pool.unpin(i, true);
+		}
+		pool.flush();
+		
+		// read the blocks again without the pool
+		BlockBuffer buf = bf.getBuffer();
+		for (int i = 0; i < 10; i++) {
+			bf.read(i, buf);
+			assertEquals(i, buf.getInt(0));
+			assertEquals(100 + i, buf.getInt(4));
+		}
+	}
+	
+	// pinned blocks are never evicted
+	@Test
+	void pinnedBlocksStay() {
+		BufferPool pool = new BufferPool(bf, 3);
+		createBlocks(pool, 10);
+		BlockBuffer pinned = pool.pin(0);
+		for (int i = 1; i < 10; i++) {
+			pool.pin(i);
+			pool.unpin(i, false);
+		}
+		assertSame(pinned, pool.pin(0));
+		pool.unpin(0, false);
+		pool.unpin(0, false);
+	}
+	
+	// pinning fails when every frame is pinned
+	@Test
+	void allFramesPinned() {
+		BufferPool pool = new BufferPool(bf, 2);
+		createBlocks(pool, 3);
+		pool.pin(0);
+		pool.pin(1);
+		assertThrows(IllegalStateException.class, () -> pool.pin(2));
+		assertThrows(IllegalStateException.class, () -> pool.unpin(2, false));
+	}
+	
+	// random pins and changes of many more blocks than frames
+	@Test
+	void randomPins() {
+		BufferPool pool = new BufferPool(bf, 7);
+		createBlocks(pool, 200);
+		int[] values = new int[200];
+		for (int i = 0; i < 200; i++) {
+			values[i] = i;
+		}
+		Random rand = new Random(3);
+		for (int n = 0; n < 20000; n++) {
+			int i = rand.nextInt(200);
+			BlockBuffer buf = pool.pin(i);
+			assertEquals(values[i], buf.getInt(0));
+			boolean changed = rand.nextBoolean();
+			if (changed) {
+				values[i] = rand.nextInt();
+				buf.putInt(0, values[i]);
+			}
+			pool.unpin(i, changed);
+		}
+		pool.flush();
+		BufferPool pool2 = new BufferPool(bf, 3);
+		for (int i = 0; i < 200; i++) {
+			assertEquals(values[i], pool2.pin(i).getInt(0));
+			pool2.unpin(i, false);
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import disk_store.DiskBTreeIndex;
+
+class DiskBTreeIndexTest {
+	
+	static String indexFilename = "tempidx.txt";
+	DiskBTreeIndex idx;
+	
+	@BeforeEach
+	void init() {
+		// create the index
+		idx = new DiskBTreeIndex(indexFilename);
+		
+		// insert some elements
+		idx.insert(1, 1);
+		idx.insert(1, 2);
+		idx.insert(2, 1);
+		idx.insert(2, 2);
+		idx.insert(2, 3);
+		idx.insert(3, 1);
+		idx.insert(4, 2);
+	}
+	
+	@AfterEach
+	void wrapup() {
+		idx.close();
+		new File(indexFilename).delete();
+	}
+
+	@Test
+	void testLookupDelete() {
+		List<Long> result = idx.lookup(2);
+		List<Long> expected = Arrays.asList(1L,2L,3L);
+		assertTrue(result.size() == 3 && result.containsAll(expected));
+		assertTrue(idx.lookup(6).size() == 0);
+		
+		idx.insert(2, 1);
+		idx.delete(2, 1);
+		result = idx.lookup(2);
+		assertTrue(result.size() == 3 && result.containsAll(expected));
+		
+		idx.delete(2, 1);
+		result = idx.lookup(2);
+		expected = Arrays.asList(2L,3L);
+		assertTrue(result.size() == 2 && result.containsAll(expected));
+		assertTrue(idx.size() == 6);
+	}
+	
+	// many random inserts and deletes, so that nodes split at several
+	// levels, then close and reopen the file; compare with a TreeMap
+	@Test
+	void testLookupRange() {
+		List<Long> result = idx.lookupRange(2, 3);
+		assertEquals(Arrays.asList(1L,2L,3L,1L), result);
+		
+		result = idx.lookupRange(0, 10);
+		assertEquals(7, result.size());
+		assertEquals(Arrays.asList(2L), idx.lookupRange(4, 4));
+		assertTrue(idx.lookupRange(5, 10).isEmpty());
+		assertTrue(idx.lookupRange(3, 2).isEmpty());
+		
+		// ranges that span many leaves
+		for (int key = 100; key < 1100; key++) {
+			idx.insert(key, key % 10);
+			idx.insert(key, 10 + key % 10);
+		}
+		result = idx.lookupRange(250, 749);
+		assertEquals(1000, result.size());
+		assertEquals(Long.valueOf(0), result.get(0));
+		assertEquals(Long.valueOf(19), result.get(999));
+		assertEquals(2000, idx.lookupRange(Integer.MIN_VALUE, Integer.MAX_VALUE).size() - 7);
+	}
+	
+	@Test
+	void testIterator() {
+		List<Long> result = new ArrayList<>();
+		idx.iterator(false).forEachRemaining(result::add);
+		assertEquals(Arrays.asList(1L,2L,1L,2L,3L,1L,2L), result);
+		
+		result.clear();
+		idx.iterator(true).forEachRemaining(result::add);
+		assertEquals(Arrays.asList(2L,1L,3L,2L,1L,2L,1L), result);
+		
+		// many leaves, some emptied by deletes
+		for (int key = 100; key < 2100; key++) {
+			idx.insert(key, key);
+		}
+		for (int key = 500; key < 1500; key++) {
+			idx.delete(key, key);
+		}
+		Iterator<Long> it = idx.iterator(true);
+		assertEquals(Long.valueOf(2099), it.next());
+		assertEquals(Long.valueOf(2098), it.next());
+		result.clear();
+		idx.iterator(false).forEachRemaining(result::add);
+		assertEquals(1007, result.size());
+		assertEquals(Long.valueOf(499), result.get(406));
+		assertEquals(Long.valueOf(1500), result.get(407));
+	}
+	
+	@Test
+	void testRandomOpsAndReopen() {
+		Random rand = new Random(42);
+		TreeMap<Integer, List<Long>> expected = new TreeMap<>();
+		expected.put(1, new ArrayList<>(Arrays.asList(1L,2L)));
+		expected.put(2, new ArrayList<>(Arrays.asList(1L,2L,3L)));
+		expected.put(3, new ArrayList<>(Arrays.asList(1L)));
+		expected.put(4, new ArrayList<>(Arrays.asList(2L)));
+		for (int i = 0; i < 200000; i++) {
+			int key = rand.nextInt(50000);
+			long blockNum = rand.nextInt(4);
+			List<Long> blocks = expected.get(key);
+			if (blocks != null && blocks.contains(blockNum)) {
+				idx.delete(key, blockNum);
+				blocks.remove(blockNum);
+				if (blocks.isEmpty()) {
+					expected.remove(key);
+				}
+			} else {
+				idx.insert(key, blockNum);
+				expected.computeIfAbsent(key, k -> new ArrayList<>()).add(blockNum);
+			}
+		}
+		idx.close();
+		idx = DiskBTreeIndex.open(indexFilename);
+		
+		long n = 0;
+		for (int key = -1; key <= 50000; key++) {
+			List<Long> blocks = expected.get(key);
+			List<Long> result = idx.lookup(key);
+			if (blocks == null) {
+				assertTrue(result.isEmpty());
+			} else {
+				assertTrue(result.size() == blocks.size() && result.containsAll(blocks));
+				n += blocks.size();
+			}
+		}
+		assertEquals(n, idx.size());
+	}
+	
+	// build an index bottom up, reopen it, then change it
+	@Test
+	void testLoad() {
+		idx.close();
+		idx = new DiskBTreeIndex(indexFilename);
+		int n = 100000;
+		int[] keys = new int[n];
+		long[] blockNums = new long[n];
+		int[] counts = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = i / 2;
+			blockNums[i] = i % 2;
+			counts[i] = 1 + i % 2;
+		}
+		idx.load(keys, blockNums, counts, n);
+		idx.close();
+		idx = DiskBTreeIndex.open(indexFilename);
+		assertEquals(150000, idx.size());
+		for (int key = 0; key < n / 2; key += 99) {
+			assertEquals(Arrays.asList(0L, 1L), idx.lookup(key));
+		}
+		
+		for (int key = 0; key < n / 2; key += 2) {
+			idx.delete(key, 0);
+			idx.insert(key + n, 5);
+		}
+		assertEquals(Arrays.asList(1L), idx.lookup(25000));
+		assertEquals(Arrays.asList(0L, 1L), idx.lookup(25001));
+		assertEquals(Arrays.asList(5L), idx.lookup(25000 + n));
+		assertTrue(idx.lookup(n / 2).isEmpty());
+	}
+	
+}
@@ -0,0 +1,67 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import disk_store.FieldStats;
+
+class FieldStatsTest {
+	
+	@Test
+	void testCounts() {
+		// 10000 rows with values 0..99, 100 rows each
+		int[] values = new int[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i % 100;
+		}
+		FieldStats stats = new FieldStats(values, values.length);
+		assertEquals(10000, stats.rowCount());
+		assertEquals(100, stats.distinctCount());
+		assertEquals(100, stats.estimateEquals(42), 20);
+		assertEquals(0.0, stats.estimateEquals(100));
+		assertEquals(1000, stats.estimateRange(10, 19), 100);
+		assertEquals(10000, stats.estimateRange(Integer.MIN_VALUE, Integer.MAX_VALUE), 1e-9);
+		assertEquals(0.0, stats.estimateRange(20, 10));
+		
+		FieldStats empty = new FieldStats(new int[0], 0);
+		assertEquals(0, empty.distinctCount());
+		assertEquals(0.0, empty.estimateRange(0, 10));
+	}
+	
+	@Test
+	void testSkew() {
+		// half the rows have value 7; the others are distinct
+		int n = 20000;
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = (i % 2 == 0) ? 7 : 1000 + i;
+		}
+		FieldStats stats = new FieldStats(values, n);
+		assertEquals(n / 2 + 1, stats.distinctCount());
+		assertEquals(n / 2, stats.estimateEquals(7), n / 20);
+		assertTrue(stats.estimateEquals(1001) < 10);
+		assertEquals(n / 4, stats.estimateRange(1000, 1000 + n / 2), n / 20);
+	}
+	
+	@Test
+	void testCorrelation() {
+		int n = 5000;
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = 3 * i;
+		}
+		assertEquals(1, new FieldStats(values, n).correlation(), 1e-9);
+		for (int i = 0; i < n; i++) {
+			values[i] = -i;
+		}
+		assertEquals(-1, new FieldStats(values, n).correlation(), 1e-9);
+		Random rand = new Random(42);
+		for (int i = 0; i < n; i++) {
+			values[i] = rand.nextInt();
+		}
+		assertEquals(0, new FieldStats(values, n).correlation(), 0.1);
+	}
+}
@@ -0,0 +1,119 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import disk_store.BlockBuffer;
+import disk_store.BlockedFile;
+import disk_store.FreeSpaceMap;
+
+class FreeSpaceMapTest {
+	
+	static String filename = "temp_fsm.txt";
+	static final int bitsPerPage = 4096 * 8;
+	BlockedFile bf;
+	
+	@BeforeEach
+	void init() {
+		new File(filename).delete();
+		bf = new BlockedFile(filename);
+		bf.write(0, bf.getBuffer());
+	}
+	
+	@AfterEach
+	void wrapup() {
+		bf.close();
+		new File(filename).delete();
+	}
+	
+	// a new map has blocks 0 and 1 full, and block 2 free
+	@Test
+	void newMap() {
+		FreeSpaceMap map = FreeSpaceMap.create(bf);
+		assertTrue(map.isFull(0));
+		assertTrue(map.isFull(1));
+		assertTrue(map.isMapBlock(1));
+		assertFalse(map.isMapBlock(2));
+		assertEquals(2, map.firstFree());
+		assertEquals(2, map.newBlock());
+	}
+	
+	// firstFree finds the lowest block with space
+	@Test
+	void firstFree() {
+		FreeSpaceMap map = FreeSpaceMap.create(bf);
+		for (long b = 2; b < 10000; b++) {
+			map.setFull(b, true);
+		}
+		assertEquals(10000, map.firstFree());
+		map.setFull(7777, false);
+		assertEquals(7777, map.firstFree());
+		map.setFull(64, false);
+		assertEquals(64, map.firstFree());
+		map.setFull(64, true);
+		map.setFull(7777, true);
+		assertEquals(10000, map.firstFree());
+	}
+	
+	// the map grows a new page past blockSize*8 blocks, and the page's
+	// block is never used for data
+	@Test
+	void growsPastOnePage() {
+		FreeSpaceMap map = FreeSpaceMap.create(bf);
+		for (long b = 2; b < bitsPerPage; b++) {
+			map.setFull(b, true);
+		}
+		assertEquals(-1, map.firstFree());
+		
+		// make the file end just before the second page of the map
+		bf.write(bitsPerPage - 1, bf.getBuffer());
+		long b = map.newBlock();
+		assertEquals(bitsPerPage + 1, b);
+		assertTrue(map.isMapBlock(bitsPerPage));
+		assertTrue(map.isFull(bitsPerPage));
+		assertEquals(bitsPerPage, bf.getLastBlockIndex());
+		assertEquals(b, map.firstFree());
+		
+		// blocks far into the file
+		long far = 5L * bitsPerPage + 17;
+		map.setFull(b, true);
+		map.setFull(far, false);
+		for (long i = b + 1; i < far; i++) {
+			map.setFull(i, true);
+		}
+		assertEquals(far, map.firstFree());
+		assertTrue(map.isFull(5L * bitsPerPage));
+	}
+	
+	// the map is saved by flush and read back by open
+	@Test
+	void flushAndOpen() {
+		FreeSpaceMap map = FreeSpaceMap.create(bf);
+		for (long b = 2; b < bitsPerPage + 100; b++) {
+			map.setFull(b, true);
+		}
+		map.setFull(50, false);
+		map.setFull(bitsPerPage + 40, false);
+		bf.write(bitsPerPage + 100, bf.getBuffer());
+		map.flush();
+		
+		// page 0 is still block 1, in the old single-bitmap format
+		BlockBuffer buf = bf.getBuffer();
+		bf.read(1, buf);
+		assertEquals((byte) 0xff, buf.get(0));
+		assertEquals((byte) 0xdf, buf.get(6));
+		
+		FreeSpaceMap map2 = FreeSpaceMap.open(bf);
+		assertEquals(50, map2.firstFree());
+		map2.setFull(50, true);
+		assertEquals(bitsPerPage + 40, map2.firstFree());
+		assertTrue(map2.isFull(bitsPerPage + 39));
+		assertFalse(map2.isFull(bitsPerPage + 101));
+	}
+
+}
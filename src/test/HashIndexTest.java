@@ -0,0 +1,135 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import disk_store.HashIndex;
+
+class HashIndexTest {
+	
+	HashIndex idx;
+	
+	@BeforeEach
+	void init() {
+		// create the index
+		idx = new HashIndex();
+		
+		// insert some elements
+		idx.insert(1, 1);
+		idx.insert(1, 2);
+		idx.insert(2, 1);
+		idx.insert(2, 2);
+		idx.insert(2, 3);
+		idx.insert(3, 1);
+		idx.insert(4, 2);
+	}
+
+	@Test
+	void testLookup() {
+		List<Long> result = idx.lookup(1);
+		List<Long> expected = Arrays.asList(1L,2L);
+		assertTrue(result.size() == 2 && result.containsAll(expected));
+		
+		result = idx.lookup(2);
+		expected = Arrays.asList(1L,2L,3L);
+		assertTrue(result.size() == 3 && result.containsAll(expected));
+		
+		result = idx.lookup(6);
+		assertTrue(result.size() == 0);
+		
+		assertEquals(2L, idx.lookupFirst(4));
+		assertEquals(-1L, idx.lookupFirst(6));
+	}
+	
+	@Test
+	void testDeleteLookup() {
+		idx.insert(2, 1);
+		assertTrue(idx.size() == 8);
+		
+		idx.delete(2, 1);
+		List<Long> result = idx.lookup(2);
+		List<Long> expected = Arrays.asList(1L,2L,3L);
+		assertTrue(result.size() == 3 && result.containsAll(expected));
+		
+		idx.delete(2, 1);
+		idx.delete(2, 1);
+		result = idx.lookup(2);
+		expected = Arrays.asList(2L,3L);
+		assertTrue(result.size() == 2 && result.containsAll(expected));
+		assertTrue(idx.size() == 6);
+	}
+	
+	// insert and delete many keys, growing the table and shifting
+	// entries back on delete, and compare with a HashMap
+	@Test
+	void testManyKeys() {
+		Random rand = new Random(42);
+		HashIndex big = new HashIndex();
+		HashMap<Integer, Long> expected = new HashMap<>();
+		for (int i = 0; i < 20000; i++) {
+			int key = rand.nextInt(5000) * 1024;	// keys that share low bits
+			if (expected.containsKey(key)) {
+				big.delete(key, expected.remove(key));
+			} else {
+				expected.put(key, (long) i);
+				big.insert(key, i);
+			}
+		}
+		assertEquals(expected.size(), big.size());
+		for (int key = 0; key < 5000 * 1024; key += 1024) {
+			Long blockNum = expected.get(key);
+			assertEquals(blockNum == null ? -1L : (long) blockNum, big.lookupFirst(key));
+		}
+	}
+	
+	// many record IDs for each of a few keys, inserted one at a time and
+	// loaded all at once, then half of them deleted
+	@Test
+	void testManyDuplicates() {
+		int numKeys = 4;
+		int perKey = 200000;
+		int n = numKeys * perKey;
+		int[] keys = new int[n];
+		long[] blockNums = new long[n];
+		int[] counts = new int[n];
+		HashIndex inserted = new HashIndex();
+		for (int i = 0; i < n; i++) {
+			keys[i] = i / perKey;
+			blockNums[i] = i % perKey;
+			counts[i] = 1;
+			inserted.insert(keys[i], blockNums[i]);
+		}
+		HashIndex loaded = new HashIndex();
+		loaded.load(keys, blockNums, counts, n);
+		assertEquals(0L, loaded.lookupFirst(0));  // in the order loaded
+		
+		for (HashIndex big : Arrays.asList(inserted, loaded)) {
+			assertEquals(n, big.size());
+			for (int key = 0; key < numKeys; key++) {
+				assertEquals(perKey, big.lookup(key).size());
+			}
+			for (int key = 0; key < numKeys; key++) {
+				for (long blockNum = 0; blockNum < perKey; blockNum += 2) {
+					big.delete(key, blockNum);
+				}
+			}
+			assertEquals(n / 2, big.size());
+			for (int key = 0; key < numKeys; key++) {
+				List<Long> result = big.lookup(key);
+				assertEquals(perKey / 2, result.size());
+				for (long blockNum : result) {
+					assertEquals(1, blockNum % 2);
+				}
+			}
+			assertTrue(big.lookup(numKeys).isEmpty());
+		}
+	}
+	
+}
@@ -3,10 +3,17 @@ package test;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.AfterEach;
 
@@ -19,7 +26,11 @@ import disk_store.HeapDB;
 import disk_store.IntField;
 import disk_store.IntType;
 import disk_store.Record;
+import disk_store.RecordCursor;
+import disk_store.RecordId;
 import disk_store.Schema;
+import disk_store.StringField;
+import disk_store.StringType;
 
 class HeapDBTest {
 	
@@ -179,6 +190,7 @@ class HeapDBTest {
 
 		// create a new DB; use index on primary key to speed inserts
 		HeapDB db = new HeapDB(dbFilename, schema);
+		db.setCostBasedAccess(false);  // use the indexes, to test them
 		db.createOrderedIndex();
 		rand = new Random(42);  // set seed for repeatability
 		insertRecords(db, numRecords);
@@ -210,6 +222,7 @@ class HeapDBTest {
 
 		// create a new DB; use index on primary key to speed inserts
 		HeapDB db = new HeapDB(dbFilename, schema);
+		db.setCostBasedAccess(false);  // use the indexes, to test them
 		db.createOrderedIndex();
 		rand = new Random(42);  // set seed for repeatability
 		insertRecords(db, numRecords);
@@ -235,6 +248,841 @@ class HeapDBTest {
 		db.close();
 	}
 	
+	@Test
+	void testHashIndex() {
+		// lookups and deletes through hash indexes on the key and on
+		// a non-key field
+		int numRecords = 2000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		db.setCostBasedAccess(false);  // use the indexes, to test them
+		db.createHashIndex();
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		assertTrue(db.size() == numRecords);
+		
+		db.createHashIndex("c");
+		List<Record> recs = db.lookup("c", 3);
+		assertTrue(recs.size() == 102);
+		
+		for (int key = 1; key <= numRecords; key += 10) {
+			assertTrue(db.delete(key));
+		}
+		for (int key = 1; key <= numRecords; key++) {
+			Record rec = db.lookup(key);
+			if (key % 10 == 1) {
+				assertNull(rec);
+			} else {
+				assertEquals(key + 1, ((IntField) rec.get(1)).getValue());
+			}
+		}
+		int m = db.lookup("c", 3).size();
+		db.deleteIndex("c");
+		assertEquals(db.lookup("c", 3).size(), m);
+		
+		db.close();
+	}
+	
+	@Test
+	void testDiskIndex() throws IOException {
+		// disk indexes are maintained by inserts and deletes, and are
+		// reattached when the database is opened again
+		int numRecords = 2000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		db.setCostBasedAccess(false);  // use the indexes, to test them
+		db.createDiskIndex();
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		db.createDiskIndex("c");
+		for (int key = 1; key <= numRecords; key += 10) {
+			assertTrue(db.delete(key));
+		}
+		int m = db.lookup("c", 3).size();
+		db.close();
+		assertTrue(new File(dbFilename + ".c.idx").exists());
+		
+		db = HeapDB.open(dbFilename);
+		db.setCostBasedAccess(false);
+		assertEquals(m, db.lookup("c", 3).size());
+		assertNull(db.lookup(11));
+		assertEquals(13, ((IntField) db.lookup(12).get(1)).getValue());
+		db.insert(createTestRecord(11, 12, 3));
+		assertEquals(m + 1, db.lookup("c", 3).size());
+		db.close();
+		
+		// an out of date index file is not used; the index is rebuilt
+		File indexFile = new File(dbFilename + ".c.idx");
+		File oldIndexFile = new File(dbFilename + ".c.idx.old");
+		Files.copy(indexFile.toPath(), oldIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		db = HeapDB.open(dbFilename);
+		db.insert(createTestRecord(21, 22, 3));
+		db.close();
+		Files.copy(oldIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		oldIndexFile.delete();
+		db = HeapDB.open(dbFilename);
+		db.setCostBasedAccess(false);
+		assertEquals(m + 2, db.lookup("c", 3).size());
+		assertNotNull(db.lookup(21));
+		
+		// without the index, the same records are found by a scan
+		db.deleteIndex("c");
+		assertFalse(new File(dbFilename + ".c.idx").exists());
+		assertEquals(m + 2, db.lookup("c", 3).size());
+		db.close();
+		
+		db = HeapDB.open(dbFilename);
+		assertEquals(m + 2, db.lookup("c", 3).size());
+		db.deleteIndex();
+		db.close();
+	}
+	
+	@Test
+	void testIndexSnapshot() throws IOException {
+		// in-memory indexes are saved on close and loaded on open
+		int numRecords = 2000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		db.createOrderedIndex();
+		db.createHashIndex("c");
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		db.close();
+		File snapshot = new File(dbFilename + ".snapshot");
+		assertTrue(snapshot.exists());
+		
+		db = HeapDB.open(dbFilename);
+		assertEquals(102, db.lookup("c", 3).size());
+		assertEquals(8, ((IntField) db.lookup(7).get(1)).getValue());
+		
+		// keep the snapshot, and change the database after it was taken
+		File oldSnapshot = new File(dbFilename + ".snapshot.old");
+		Files.copy(snapshot.toPath(), oldSnapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		db.insert(createTestRecord(numRecords + 1, 0, 3));
+		db.close();
+		
+		// an out of date snapshot is not used; the indexes are rebuilt
+		Files.copy(oldSnapshot.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		db = HeapDB.open(dbFilename);
+		assertEquals(103, db.lookup("c", 3).size());
+		assertNotNull(db.lookup(numRecords + 1));
+		db.close();
+		
+		// neither is a damaged one
+		byte[] bytes = Files.readAllBytes(snapshot.toPath());
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(snapshot.toPath(), bytes);
+		db = HeapDB.open(dbFilename);
+		assertEquals(103, db.lookup("c", 3).size());
+		
+		// the key always has an index, so there is still a snapshot
+		db.deleteIndex();
+		db.deleteIndex("c");
+		db.close();
+		assertTrue(snapshot.exists());
+		db = HeapDB.open(dbFilename);
+		assertEquals(103, db.lookup("c", 3).size());
+		assertNotNull(db.lookup(numRecords + 1));
+		db.close();
+		oldSnapshot.delete();
+	}
+	
+	@Test
+	void testParallelIndexBuild() {
+		// an index built by several threads, over more blocks than one
+		// thread scans, matches one built by a single thread
+		int numRecords = 200000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		db.createHashIndex();
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		
+		db.setScanParallelism(1);
+		db.createOrderedIndex("c");
+		int[] counts = new int[20];
+		for (int c = 0; c < 20; c++) {
+			counts[c] = db.lookup("c", c).size();
+		}
+		
+		db.setScanParallelism(4);
+		db.createOrderedIndex("c");
+		db.createHashIndex();
+		int total = 0;
+		for (int c = 0; c < 20; c++) {
+			assertEquals(counts[c], db.lookup("c", c).size());
+			total += counts[c];
+		}
+		assertEquals(numRecords, total);
+		for (int key = 1; key <= numRecords; key += 1000) {
+			assertEquals(key + 1, ((IntField) db.lookup(key).get(1)).getValue());
+		}
+		assertThrows(IllegalArgumentException.class, () -> db.setScanParallelism(0));
+		
+		db.close();
+	}
+	
+	@Test
+	void testInsertAll() {
+		// a batch insert gives the same database as inserts one at a time
+		int numRecords = 5000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		db.createOrderedIndex("c");
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords / 2);
+		for (int key = 1; key <= numRecords / 2; key += 10) {
+			assertTrue(db.delete(key));
+		}
+		
+		// the batch repeats keys of the database and keys of its own
+		List<Record> batch = new ArrayList<Record>();
+		for (int key = 1; key <= numRecords; key++) {
+			batch.add(createTestRecord(key, key + 1, rand.nextInt(20)));
+		}
+		batch.add(createTestRecord(numRecords, 0, 0));
+		int m = numRecords - numRecords / 2 + numRecords / 20;
+		assertEquals(m, db.insertAll(batch));
+		assertEquals(numRecords, db.size());
+		assertEquals(0, db.insertAll(batch));
+		assertEquals(numRecords + 1, ((IntField) db.lookup(numRecords).get(1)).getValue());
+		
+		// the index on c agrees with a scan
+		for (int c = 0; c < 20; c++) {
+			int n = db.lookup("c", c).size();
+			int count = 0;
+			for (Record rec : db) {
+				if (((IntField) rec.get(2)).getValue() == c) {
+					count++;
+				}
+			}
+			assertEquals(count, n);
+		}
+		db.close();
+		
+		// the blocks and the block bitmap were written
+		db = HeapDB.open(dbFilename);
+		assertEquals(numRecords, db.size());
+		assertTrue(db.insert(createTestRecord(numRecords + 1, 0, 0)));
+		assertEquals(numRecords + 1, db.size());
+		db.close();
+	}
+	
+	@Test
+	void testBulkLoad() throws IOException {
+		// load a delimited file, with a repeated key and a blank line
+		int numRecords = 20000;
+		File dataFile = new File("temp3.csv");
+		rand = new Random(42);  // set seed for repeatability
+		StringBuilder sb = new StringBuilder();
+		int[] counts = new int[20];
+		for (int key = 1; key <= numRecords; key++) {
+			int c = rand.nextInt(20);
+			counts[c]++;
+			sb.append(key).append('|').append(key + 1).append('|').append(c).append('\n');
+			if (key == 100) {
+				sb.append("\n50|0|0\n");
+			}
+		}
+		Files.write(dataFile.toPath(), sb.toString().getBytes());
+		
+		HeapDB db = new HeapDB(dbFilename, schema);
+		db.createOrderedIndex("c");
+		db.setScanParallelism(4);
+		db.insert(createTestRecord(-1, 0, 0));
+		assertEquals(numRecords, db.bulkLoad(dataFile.getPath(), '|'));
+		assertEquals(numRecords + 1, db.size());
+		assertEquals(51, ((IntField) db.lookup(50).get(1)).getValue());
+		assertNotNull(db.lookup(-1));
+		assertFalse(db.insert(createTestRecord(numRecords, 0, 0)));
+		for (int c = 1; c < 20; c++) {
+			assertEquals(counts[c], db.lookup("c", c).size());
+		}
+		
+		// a second load of the same file adds nothing
+		assertEquals(0, db.bulkLoad(dataFile.getPath(), '|'));
+		assertEquals(numRecords + 1, db.size());
+		assertEquals(counts[3], db.lookup("c", 3).size());
+		
+		// a bad line stops the load; the records of its block, and of
+		// the blocks after it, are not loaded
+		Files.write(dataFile.toPath(), "30001,1,1\n30002,x,1\n30003,1,1\n".getBytes());
+		assertThrows(IllegalArgumentException.class, () -> db.bulkLoad(dataFile.getPath()));
+		Files.write(dataFile.toPath(), "30004,1\n".getBytes());
+		assertThrows(IllegalArgumentException.class, () -> db.bulkLoad(dataFile.getPath()));
+		Files.write(dataFile.toPath(), "30005,1,1,1\n".getBytes());
+		assertThrows(IllegalArgumentException.class, () -> db.bulkLoad(dataFile.getPath()));
+		Files.write(dataFile.toPath(), "30006,1,99999999999\n".getBytes());
+		assertThrows(IllegalArgumentException.class, () -> db.bulkLoad(dataFile.getPath()));
+		assertEquals(numRecords + 1, db.size());
+		assertEquals(counts[3], db.lookup("c", 3).size());
+		db.close();
+		
+		// string fields
+		Schema named = new Schema("a", IntType.getInstance());
+		named.add("name", new StringType(5));
+		Files.write(dataFile.toPath(), "1,abc\n2,\n3,-1\n".getBytes());
+		fixOpenFile();
+		HeapDB db2 = new HeapDB(dbFilename, named);
+		assertEquals(3, db2.bulkLoad(dataFile.getPath()));
+		assertEquals("abc", ((StringField) db2.lookup(1).get(1)).getValue());
+		assertEquals("", ((StringField) db2.lookup(2).get(1)).getValue());
+		assertEquals("-1", ((StringField) db2.lookup(3).get(1)).getValue());
+		Files.write(dataFile.toPath(), "4,abcdef\n".getBytes());
+		assertThrows(IllegalArgumentException.class, () -> db2.bulkLoad(dataFile.getPath()));
+		assertNull(db2.lookup(4));
+		db2.close();
+		dataFile.delete();
+	}
+	
+	@Test
+	void testAppendMode() {
+		// inserts in key order go to the tail block; others take the
+		// usual path, and everything can be found before a flush
+		int numRecords = 5000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		db.createOrderedIndex("c");
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, 100);
+		db.setAppendMode(true);
+		for (int key = 201; key <= numRecords; key++) {
+			assertTrue(db.insert(createTestRecord(key, key + 1, rand.nextInt(20))));
+			if (key % 1000 == 0) {
+				assertEquals(key + 1, ((IntField) db.lookup(key).get(1)).getValue());
+				assertFalse(db.insert(createTestRecord(key - 500, 0, 0)));
+				assertTrue(db.insert(createTestRecord(key / 1000 + 100, 0, 0)));
+			}
+		}
+		assertFalse(db.insert(createTestRecord(numRecords, 0, 0)));
+		int m = 100 + numRecords - 200 + numRecords / 1000;
+		assertEquals(m, db.size());
+		
+		// delete from the tail block, then keep appending
+		assertTrue(db.delete(numRecords - 1));
+		assertTrue(db.insert(createTestRecord(numRecords + 1, 0, 3)));
+		assertTrue(db.modify(createTestRecord(numRecords + 1, -7, 4)));
+		assertEquals(-7, ((IntField) db.lookup(numRecords + 1).get(1)).getValue());
+		int count = 0;
+		for (Record rec : db) {
+			if (((IntField) rec.get(2)).getValue() == 4) {
+				count++;
+			}
+		}
+		assertEquals(count, db.lookup("c", 4).size());
+		
+		// an index built now sees the tail block
+		db.createOrderedIndex("b");
+		assertEquals(1, db.lookup("b", -7).size());
+		db.close();
+		
+		db = HeapDB.open(dbFilename);
+		assertEquals(m, db.size());
+		assertNull(db.lookup(numRecords - 1));
+		assertEquals(count, db.lookup("c", 4).size());
+		
+		// after a batch insert, the largest key is known
+		db.setAppendMode(true);
+		db.insertAll(Arrays.asList(createTestRecord(numRecords + 10, 0, 0)));
+		assertFalse(db.insert(createTestRecord(numRecords + 10, 0, 0)));
+		assertTrue(db.insert(createTestRecord(numRecords + 11, 0, 0)));
+		db.setAppendMode(false);
+		assertFalse(db.insert(createTestRecord(numRecords + 11, 0, 0)));
+		db.close();
+	}
+	
+	@Test
+	void testStreams() {
+		// sequential and parallel streams see the same records as the
+		// iterator, including those of blocks not yet written back
+		int numRecords = 50000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		for (int key = 1; key <= numRecords; key += 7) {
+			db.delete(key);
+		}
+		long sum = 0;
+		int count = 0;
+		for (Record rec : db) {
+			sum += rec.getKey();
+			count++;
+		}
+		assertEquals(count, db.stream().count());
+		assertEquals(count, db.parallelStream().count());
+		assertEquals(sum, db.parallelStream().mapToLong(rec -> rec.getKey()).sum());
+		
+		Map<Integer, Long> byC = db.parallelStream()
+				.collect(Collectors.groupingBy(rec -> ((IntField) rec.get(2)).getValue(), Collectors.counting()));
+		for (int c = 0; c < 20; c++) {
+			assertEquals(db.lookup("c", c).size(), byC.get(c).intValue());
+		}
+		
+		// records that are kept must be copied
+		List<Record> recs = db.stream().filter(rec -> rec.getKey() % 1000 == 0)
+				.map(Record::new).collect(Collectors.toList());
+		int kept = 0;
+		for (int key = 1000; key <= numRecords; key += 1000) {
+			if (key % 7 != 1) {
+				kept++;
+			}
+		}
+		assertEquals(kept, recs.size());
+		assertEquals(1000, recs.get(0).getKey());
+		db.close();
+	}
+	
+	@Test
+	void testCursor() {
+		// a cursor reads fields in place, and agrees with lookups
+		Schema named = new Schema("a", IntType.getInstance());
+		StringType st = new StringType(10);
+		named.add("name", st);
+		named.add("n", IntType.getInstance());
+		int numRecords = 3000;
+		HeapDB db = new HeapDB(dbFilename, named);
+		for (int key = 1; key <= numRecords; key++) {
+			Record rec = named.blankRecord();
+			rec.set(0, new IntField(key));
+			rec.set(1, new StringField("s" + (key % 100), st));
+			rec.set(2, new IntField(key % 7));
+			db.insert(rec);
+		}
+		db.delete(5);
+		
+		RecordCursor cursor = db.cursor();
+		assertThrows(IllegalStateException.class, () -> cursor.getInt(0));
+		byte[] s42 = "s42".getBytes();
+		int count = 0;
+		int matches = 0;
+		while (cursor.next()) {
+			count++;
+			int key = cursor.getInt(0);
+			assertEquals(key % 7, cursor.getInt(2));
+			String name = cursor.getString(1);
+			assertEquals("s" + (key % 100), name);
+			assertEquals(Integer.signum(name.compareTo("s42")), Integer.signum(cursor.compareString(1, s42)));
+			if (cursor.compareString(1, s42) == 0) {
+				matches++;
+			}
+			if (key == 1234) {
+				assertEquals(db.lookup(1234), cursor.getRecord());
+				long rid = cursor.getRecordId();
+				assertTrue(RecordId.blockNum(rid) > 1);
+			}
+		}
+		assertEquals(numRecords - 1, count);
+		assertEquals(numRecords / 100, matches);
+		assertFalse(cursor.next());
+		assertThrows(IllegalStateException.class, () -> cursor.getInt(0));
+		
+		RecordCursor cursor2 = db.cursor();
+		assertTrue(cursor2.next());
+		assertThrows(IllegalArgumentException.class, () -> cursor2.getInt(1));
+		assertThrows(IllegalArgumentException.class, () -> cursor2.getString(0));
+		assertThrows(IllegalArgumentException.class, () -> cursor2.getInt(3));
+		
+		// scans of unindexed fields use a cursor
+		assertEquals(429, db.lookup("n", 3).size());  // keys 3, 10, ..., 2999
+		db.close();
+	}
+	
+	@Test
+	void testLookupRange() {
+		// range lookups agree with a scan, with or without an ordered
+		// index, and read the blocks of the matches in ascending order
+		int numRecords = 5000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		db.setCostBasedAccess(false);  // use the indexes, to test them
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		for (int key = 3; key <= numRecords; key += 7) {
+			db.delete(key);
+		}
+		
+		List<Record> scanned = db.lookupRange("c", 5, 7).collect(Collectors.toList());
+		assertEquals(scanned.size(), db.lookup("c", 5).size() + db.lookup("c", 6).size() + db.lookup("c", 7).size());
+		List<Record> scannedB = db.lookupRange("b", 1000, 2000).collect(Collectors.toList());
+		assertEquals(1001 - 143, scannedB.size());  // b = key+1; keys 3, 10, ... deleted
+		
+		db.createOrderedIndex("c");
+		db.createDiskIndex("b");
+		List<Record> found = db.lookupRange("c", 5, 7).collect(Collectors.toList());
+		assertEquals(scanned.size(), found.size());
+		assertTrue(found.containsAll(scanned));
+		List<Record> foundB = db.lookupRange("b", 1000, 2000).collect(Collectors.toList());
+		assertEquals(scannedB, foundB);  // in key order, since keys were inserted in order
+		for (Record rec : found) {
+			int c = ((IntField) rec.get(2)).getValue();
+			assertTrue(c >= 5 && c <= 7);
+		}
+		
+		// the index is maintained as records change
+		int c1000 = ((IntField) db.lookup(1000).get(2)).getValue();
+		db.delete(1000);
+		db.insert(createTestRecord(numRecords + 1, 1500, 6));
+		assertEquals(found.size() + ((c1000 >= 5 && c1000 <= 7) ? 0 : 1), db.lookupRange("c", 5, 7).count());
+		assertEquals(foundB.size(), db.lookupRange("b", 1000, 2000).count());
+		assertEquals(numRecords + 1, db.lookupRange("b", 1500, 1500)
+				.mapToInt(rec -> ((IntField) rec.get(0)).getValue()).max().getAsInt());
+		
+		assertEquals(0, db.lookupRange("c", 7, 5).count());
+		assertEquals(0, db.lookupRange("b", -10, 0).count());
+		assertEquals(db.size(), db.lookupRange("c", Integer.MIN_VALUE, Integer.MAX_VALUE).count());
+		assertThrows(IllegalArgumentException.class, () -> db.lookupRange("d", 0, 1));
+		db.deleteIndex("b");
+		db.close();
+	}
+	
+	@Test
+	void testIterateOrderedBy() {
+		// records come out in field order, with or without an ordered
+		// index, and a limit gives the first of them
+		int numRecords = 3000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		for (int key = 2; key <= numRecords; key += 5) {
+			db.delete(key);
+		}
+		
+		List<Record> sorted = new ArrayList<>();
+		for (Record rec : db) {
+			sorted.add(new Record(rec));
+		}
+		sorted.sort((r1, r2) -> Integer.compare(((IntField) r1.get(2)).getValue(), ((IntField) r2.get(2)).getValue()));
+		List<Integer> expected = sorted.stream().map(rec -> ((IntField) rec.get(2)).getValue()).collect(Collectors.toList());
+		List<Integer> expectedTop = new ArrayList<>(expected.subList(expected.size() - 10, expected.size()));
+		Collections.reverse(expectedTop);
+		
+		for (int pass = 0; pass < 2; pass++) {
+			// first by a scan and sort, then by walking an index
+			List<Record> ordered = db.iterateOrderedBy("c").collect(Collectors.toList());
+			assertEquals(sorted.size(), ordered.size());
+			assertTrue(ordered.containsAll(sorted));
+			assertEquals(expected, ordered.stream().map(rec -> ((IntField) rec.get(2)).getValue()).collect(Collectors.toList()));
+			
+			assertEquals(expected.subList(0, 25), db.iterateOrderedBy("c", 25)
+					.map(rec -> ((IntField) rec.get(2)).getValue()).collect(Collectors.toList()));
+			assertEquals(expectedTop, db.iterateOrderedByDescending("c", 10)
+					.map(rec -> ((IntField) rec.get(2)).getValue()).collect(Collectors.toList()));
+			assertEquals(sorted.size(), db.iterateOrderedByDescending("c").count());
+			assertEquals(0, db.iterateOrderedBy("c", 0).count());
+			db.createOrderedIndex("c");
+		}
+		
+		// top-N by key
+		db.createDiskIndex("a");
+		List<Record> last = db.iterateOrderedByDescending("a", 3).collect(Collectors.toList());
+		assertEquals(Arrays.asList(db.lookup(3000), db.lookup(2999), db.lookup(2998)), last);
+		assertEquals(db.lookup(1), db.iterateOrderedBy("a", 1).findFirst().get());
+		
+		assertThrows(IllegalArgumentException.class, () -> db.iterateOrderedBy("c", -1));
+		assertThrows(IllegalArgumentException.class, () -> db.iterateOrderedBy("d"));
+		db.deleteIndex();
+		db.close();
+	}
+	
+	@Test
+	void testCostBasedAccess() {
+		// an index is used only when it reads fewer blocks than a scan
+		int numRecords = 20000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		db.createHashIndex("c");
+		db.createOrderedIndex("b");
+		
+		// without statistics, the indexes are used
+		assertNull(db.getStats("c"));
+		assertEquals("c = 3: index (HashIndex), no statistics", db.explain("c", 3));
+		db.analyze();
+		assertEquals(numRecords, db.getStats("c").rowCount());
+		assertEquals(20, db.getStats("c").distinctCount());
+		assertEquals(numRecords, db.getStats("b").distinctCount());
+		assertEquals(1, db.getStats("b").correlation(), 1e-9);
+		
+		// c has 20 values, so each is in almost every block
+		String plan = db.explain("c", 3);
+		assertTrue(plan.startsWith("c = 3: scan"), plan);
+		assertTrue(db.explain("a", 500).startsWith("a = 500: index"));
+		assertTrue(db.explain("b", 0, numRecords).startsWith("b from 0 to " + numRecords + ": scan"));
+		// b is in the order of the records, so the zone map narrows a
+		// scan to the block that holds a value, which is as cheap as the
+		// index
+		plan = db.explain("b", 500);
+		assertTrue(plan.startsWith("b = 500: scan") && plan.endsWith("scan 1 block reads"), plan);
+		assertTrue(db.explain("c", 3, 4).contains("no usable index"));  // a hash index has no ranges
+		
+		// the same records either way
+		List<Record> scanned = db.lookup("c", 3);
+		List<Record> byRange = db.lookupRange("b", 0, numRecords).collect(Collectors.toList());
+		db.setCostBasedAccess(false);
+		assertTrue(db.explain("c", 3).contains("cost-based access is off"));
+		assertEquals(scanned.size(), db.lookup("c", 3).size());
+		assertTrue(db.lookup("c", 3).containsAll(scanned));
+		assertEquals(byRange, db.lookupRange("b", 0, numRecords).collect(Collectors.toList()));
+		db.setCostBasedAccess(true);
+		
+		// the statistics are brought up to date only by analyze()
+		for (int key = 1; key <= numRecords / 5; key++) {
+			db.delete(key);
+		}
+		assertEquals(numRecords / 5, db.getChangesSinceAnalyze());
+		assertEquals(numRecords, db.getStats("b").rowCount());
+		db.analyze();
+		assertEquals(0, db.getChangesSinceAnalyze());
+		assertEquals(numRecords - numRecords / 5, db.getStats("b").rowCount());
+		assertThrows(IllegalArgumentException.class, () -> db.explain("d", 1));
+		db.close();
+		
+		// when the database is opened again the zones are unknown, so
+		// the index is used, until a scan reads the blocks
+		HeapDB db2 = HeapDB.open(dbFilename);
+		db2.analyze();
+		assertTrue(db2.explain("b", 15000).startsWith("b = 15000: index"));
+		assertTrue(db2.explain("b", 15000, 15100).startsWith("b from 15000 to 15100: index"));
+		int m = db2.lookup("c", 3).size();
+		assertTrue(db2.explain("b", 15000).startsWith("b = 15000: scan"));
+		assertEquals(m, db2.lookup("c", 3).size());
+		assertEquals(101, db2.lookupRange("b", 15000, 15100).count());
+		db2.close();
+	}
+	
+	@Test
+	void testZoneMaps() {
+		// scans for a range of a field that follows the order of the
+		// records read only the blocks that can hold the range
+		int numRecords = 20000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		
+		// c is random, so every block may hold any value
+		String allBlocks = db.explain("c", 0, 19);
+		assertTrue(allBlocks.matches("c from 0 to 19: scan, [0-9]+ block reads \\(no usable index\\)"), allBlocks);
+		assertTrue(db.explain("b", 5001, 5100).matches("b from 5001 to 5100: scan, [12] block reads.*"));
+		assertTrue(db.explain("b", -10, 0).startsWith("b from -10 to 0: scan, 0 block reads"));
+		assertEquals(100, db.lookupRange("b", 5001, 5100).count());
+		assertEquals(1, db.lookup("b", 12345).size());
+		
+		// deletes and changes keep the zones good bounds
+		Record first = db.lookupRange("b", Integer.MIN_VALUE, 2).findFirst().get();
+		assertTrue(db.delete(1));
+		assertTrue(db.delete(2));
+		assertEquals(0, db.lookup("b", 2).size());
+		assertEquals(1, db.lookup("b", 4).size());
+		assertTrue(db.modify(createTestRecord(5000, -1, 0)));
+		assertEquals(1, db.lookup("b", -1).size());
+		assertEquals(0, db.lookup("b", 5001).size());
+		assertTrue(db.insert(first));
+		assertEquals(1, db.lookup("b", 2).size());
+		assertEquals(3, db.lookupRange("b", -1, 4).count());  // keys 5000, 1 and 3
+		
+		// after the database is opened again, zones are set as blocks
+		// are read
+		db.close();
+		HeapDB db2 = HeapDB.open(dbFilename);
+		assertEquals(allBlocks.replace("c from 0 to 19", "b from 5001 to 5100"), db2.explain("b", 5001, 5100));
+		assertEquals(numRecords - 1, db2.lookupRange("b", Integer.MIN_VALUE, Integer.MAX_VALUE).count());
+		assertTrue(db2.explain("b", 5001, 5100).matches("b from 5001 to 5100: scan, [12] block reads.*"));
+		assertEquals(99, db2.lookupRange("b", 5001, 5100).count());
+		db2.close();
+	}
+	
+	@Test
+	void testKeyIndex() {
+		// the key always has an index, with or without a key filter
+		int numRecords = 5000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		db.deleteIndex();
+		assertFalse(db.insert(createTestRecord(7, 0, 0)));
+		assertEquals(8, ((IntField) db.lookup(7).get(1)).getValue());
+		
+		// the filter grows past the size it was built for
+		db.createKeyFilter(0.01);
+		for (int key = numRecords + 1; key <= 4 * numRecords; key++) {
+			assertTrue(db.insert(createTestRecord(key, key + 1, 0)));
+		}
+		for (int key = 1; key <= 4 * numRecords; key += 97) {
+			assertFalse(db.insert(createTestRecord(key, 0, 0)));
+		}
+		assertTrue(db.delete(7));
+		assertTrue(db.insert(createTestRecord(7, 0, 0)));
+		assertEquals(4 * numRecords, db.size());
+		assertThrows(IllegalArgumentException.class, () -> db.createKeyFilter(1.5));
+		db.deleteKeyFilter();
+		assertFalse(db.insert(createTestRecord(7, 0, 0)));
+		db.close();
+		
+		// the key index is there when the database is opened again
+		HeapDB db2 = HeapDB.open(dbFilename);
+		assertFalse(db2.insert(createTestRecord(9, 0, 0)));
+		assertEquals(0, ((IntField) db2.lookup(7).get(1)).getValue());
+		db2.close();
+	}
+	
+	@Test
+	void testModify() {
+		// modify a record in place, with and without indexes
+		int numRecords = 2000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		assertTrue(db.modify(createTestRecord(5, 50, 19)));
+		assertEquals(50, ((IntField) db.lookup(5).get(1)).getValue());
+		assertFalse(db.modify(createTestRecord(numRecords + 1, 0, 0)));
+		
+		// indexes on changed fields are updated
+		db.createOrderedIndex();
+		db.createHashIndex("c");
+		int m3 = db.lookup("c", 3).size();
+		int m4 = db.lookup("c", 4).size();
+		Record rec = db.lookup("c", 3).get(0);
+		int key = rec.getKey();
+		assertTrue(db.modify(createTestRecord(key, 7, 4)));
+		assertEquals(m3 - 1, db.lookup("c", 3).size());
+		assertEquals(m4 + 1, db.lookup("c", 4).size());
+		assertEquals(7, ((IntField) db.lookup(key).get(1)).getValue());
+		assertEquals(numRecords, db.size());
+		
+		// deletes go through the key index
+		assertTrue(db.delete(key));
+		assertNull(db.lookup(key));
+		assertFalse(db.delete(key));
+		assertFalse(db.modify(createTestRecord(key, 7, 4)));
+		assertEquals(m4, db.lookup("c", 4).size());
+		assertEquals(numRecords - 1, db.size());
+		
+		db.close();
+	}
+	
+	@Test
+	void testRecordIdLookup() {
+		// an index lookup returns each matching record once, with its
+		// own field values, including records that share a block
+		int numRecords = 2000;
+		HeapDB db = new HeapDB(dbFilename, schema);
+		db.createOrderedIndex("c");
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		
+		List<Record> recs = db.lookup("c", 3);
+		assertEquals(102, recs.size());
+		boolean[] seen = new boolean[numRecords + 1];
+		for (Record rec : recs) {
+			int key = rec.getKey();
+			assertFalse(seen[key]);
+			seen[key] = true;
+			assertEquals(key + 1, ((IntField) rec.get(1)).getValue());
+			assertEquals(3, ((IntField) rec.get(2)).getValue());
+		}
+		
+		// deleting one record leaves the others of its block
+		int key = recs.get(1).getKey();
+		assertTrue(db.delete(key));
+		recs = db.lookup("c", 3);
+		assertEquals(101, recs.size());
+		for (Record rec : recs) {
+			assertNotEquals(key, rec.getKey());
+		}
+		
+		// a new record may reuse the slot
+		db.insert(createTestRecord(key, 0, 3));
+		assertEquals(102, db.lookup("c", 3).size());
+		assertEquals(0, ((IntField) db.lookup(key).get(1)).getValue());
+		
+		db.close();
+	}
+	
+	@Test
+	void testMappedHeapOps() {
+		// test insert, delete, and lookup operations on a memory-mapped
+		// database, then reopen it without memory mapping
+		
+		int numRecords = 2000;
+		HeapDB db = new HeapDB(dbFilename, schema, true);
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		assertTrue(db.size() == numRecords);
+		
+		db.delete(2);
+		assertTrue(db.lookup(2) == null);
+		assertTrue(db.lookup(3) != null);
+		db.close();
+		
+		// the file is truncated to its last block on close
+		assertTrue(new File(dbFilename).length() % 4096 == 0);
+		
+		db = HeapDB.open(dbFilename);
+		assertTrue(db.size() == numRecords - 1);
+		assertTrue(db.lookup(2) == null);
+		assertTrue(((IntField) db.lookup(numRecords).get(1)).getValue() == numRecords + 1);
+		db.close();
+		
+		db = HeapDB.open(dbFilename, true);
+		assertTrue(db.insert(createTestRecord(2, 3, 4)));
+		assertTrue(db.size() == numRecords);
+		db.close();
+	}
+	
+	@Test
+	void testSmallBufferPool() {
+		// run with a buffer pool much smaller than the database, so
+		// blocks are evicted and written back, then reopen the database
+		
+		int numRecords = 2000;
+		HeapDB db = new HeapDB(dbFilename, schema, false, 3);
+		rand = new Random(42);  // set seed for repeatability
+		insertRecords(db, numRecords);
+		assertTrue(db.size() == numRecords);
+		for (int key = 1; key <= numRecords; key += 10) {
+			assertTrue(db.delete(key));
+		}
+		db.close();
+		
+		db = HeapDB.open(dbFilename, false, 2);
+		assertTrue(db.size() == numRecords - numRecords / 10);
+		assertTrue(db.lookup(11) == null);
+		assertTrue(((IntField) db.lookup(12).get(1)).getValue() == 13);
+		db.close();
+	}
+	
+	@Test
+	void testBeyondOneBitmapBlock() {
+		// a database with more blocks than one bitmap block can track
+		
+		// records of 480 bytes, 8 per block
+		Schema wide = new Schema("a", IntType.getInstance());
+		StringType st = new StringType(64);
+		for (int i = 0; i < 7; i++) {
+			wide.add("s" + i, st);
+		}
+		StringField s = new StringField("x", st);
+		
+		int numBlocks = 4096 * 8 + 50;
+		int numRecords = 8 * numBlocks;
+		HeapDB db = new HeapDB(dbFilename, wide);
+		db.createOrderedIndex();
+		for (int key = 0; key < numRecords; key++) {
+			Record rec = wide.blankRecord();
+			rec.set(0, new IntField(key));
+			rec.set(7, s);
+			assertTrue(db.insert(rec));
+		}
+		assertTrue(db.size() == numRecords);
+		
+		// free space in a low block is found and reused
+		assertTrue(db.delete(100));
+		Record rec = wide.blankRecord();
+		rec.set(0, new IntField(numRecords));
+		assertTrue(db.insert(rec));
+		db.close();
+		
+		db = HeapDB.open(dbFilename);
+		assertTrue(db.size() == numRecords);
+		assertTrue(db.lookup(100) == null);
+		assertTrue(db.lookup(numRecords - 1) != null);
+		db.close();
+		fixOpenFile();
+	}
+	
 	// return a random number from 0 to 2, inclusive, where
 	// 0 means insert, 1 means delete, and 2 means lookup
 	// This function controls the proportions of the various
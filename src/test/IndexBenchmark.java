@@ -0,0 +1,61 @@
+package test;
+
+import java.util.Random;
+
+import disk_store.BTreeIndex;
+import disk_store.DBIndex;
+import disk_store.OrdIndex;
+
+/**
+ * Compare the time for index operations on OrdIndex and BTreeIndex.
+ * Run with the number of keys as an argument (default 1,000,000).
+ *
+ * The index is built from the even keys 0, 2, ... in ascending order,
+ * which is the best case for OrdIndex, since every new entry goes at
+ * the end of its list.  Then random keys are looked up, odd keys are
+ * inserted in random order, and random even keys are deleted.
+ */
+
+public class IndexBenchmark {
+	
+	static final int numLookups = 1000000;
+	static final int numChanges = 1000;
+	
+	public static void main(String[] args) {
+		int numKeys = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		run("OrdIndex", new OrdIndex(), numKeys);
+		run("BTreeIndex", new BTreeIndex(), numKeys);
+	}
+	
+	static void run(String name, DBIndex idx, int numKeys) {
+		Random rand = new Random(42);  // set seed for repeatability
+		System.out.println(name+", "+numKeys+" keys");
+	
+		long t1 = System.nanoTime();
+		for (int i = 0; i < numKeys; i++) {
+			idx.insert(2 * i, i / 100);
+		}
+		long t2 = System.nanoTime();
+		System.out.println("  build:   "+(t2 - t1)/1000000+" ms");
+	
+		long found = 0;
+		for (int i = 0; i < numLookups; i++) {
+			found += idx.lookup(2 * rand.nextInt(numKeys)).size();
+		}
+		long t3 = System.nanoTime();
+		System.out.println("  "+numLookups+" lookups: "+(t3 - t2)/1000000+" ms ("+found+" found)");
+	
+		for (int i = 0; i < numChanges; i++) {
+			idx.insert(2 * rand.nextInt(numKeys) + 1, 0);
+		}
+		long t4 = System.nanoTime();
+		System.out.println("  "+numChanges+" random inserts: "+(t4 - t3)/1000000+" ms");
+	
+		for (int i = 0; i < numChanges; i++) {
+			int k = rand.nextInt(numKeys);
+			idx.delete(2 * k, k / 100);
+		}
+		long t5 = System.nanoTime();
+		System.out.println("  "+numChanges+" random deletes: "+(t5 - t4)/1000000+" ms");
+	}
+}
@@ -0,0 +1,89 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import disk_store.BTreeIndex;
+import disk_store.DBIndex;
+import disk_store.HashIndex;
+import disk_store.IndexBuilder;
+import disk_store.OrdIndex;
+
+class IndexBuilderTest {
+	
+	// the pairs of OrdIndexTest, plus a repeated pair and negative keys
+	static IndexBuilder testBuilder() {
+		IndexBuilder builder = new IndexBuilder();
+		builder.add(1, 1);
+		builder.add(2, 1);
+		builder.add(2, 1);
+		builder.add(3, 1);
+		builder.add(-5, 1);
+		builder.add(1, 2);
+		builder.add(2, 2);
+		builder.add(4, 2);
+		builder.add(2, 3);
+		builder.add(-5, 3);
+		return builder;
+	}
+	
+	static void checkIndex(DBIndex idx) {
+		List<Long> result = idx.lookup(2);
+		assertTrue(result.size() == 3 && result.containsAll(Arrays.asList(1L,2L,3L)));
+		result = idx.lookup(-5);
+		assertTrue(result.size() == 2 && result.containsAll(Arrays.asList(1L,3L)));
+		assertTrue(idx.lookup(6).isEmpty());
+		
+		// the repeated pair has a count of 2
+		idx.delete(2, 1);
+		assertTrue(idx.lookup(2).contains(1L));
+		idx.delete(2, 1);
+		assertFalse(idx.lookup(2).contains(1L));
+	}
+	
+	@Test
+	void buildOrdered() {
+		BTreeIndex idx = new BTreeIndex();
+		testBuilder().build(idx);
+		assertEquals(10, idx.size());
+		checkIndex(idx);
+	}
+	
+	@Test
+	void buildHash() {
+		HashIndex idx = new HashIndex();
+		testBuilder().build(idx);
+		assertEquals(10, idx.size());
+		checkIndex(idx);
+	}
+	
+	// other indexes get the pairs one at a time
+	@Test
+	void buildOther() {
+		OrdIndex idx = new OrdIndex();
+		testBuilder().build(idx);
+		assertEquals(10, idx.size());
+		checkIndex(idx);
+	}
+	
+	// build a large index, with the keys added out of order
+	@Test
+	void buildLarge() {
+		IndexBuilder builder = new IndexBuilder();
+		int n = 100000;
+		for (int i = 0; i < n; i++) {
+			builder.add((i * 7919) % n, i / 100);
+		}
+		assertEquals(n, builder.size());
+		BTreeIndex idx = new BTreeIndex();
+		builder.build(idx);
+		for (int i = 0; i < n; i += 997) {
+			assertEquals(Arrays.asList((long) (i / 100)), idx.lookup((i * 7919) % n));
+		}
+	}
+	
+}
@@ -2,6 +2,7 @@ package test;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -32,23 +33,46 @@ class OrdIndexTest {
 
 	@Test
 	void testLookup() {
-		List<Integer> result = idx.lookup(1);
-		List<Integer> expected = Arrays.asList(1,2);
+		List<Long> result = idx.lookup(1);
+		List<Long> expected = Arrays.asList(1L,2L);
 		
 		assertTrue(result.size() == 2 && result.containsAll(expected));
 		
 		result = idx.lookup(2);
-		expected = Arrays.asList(1,2,3);
+		expected = Arrays.asList(1L,2L,3L);
 		assertTrue(result.size() == 3 && result.containsAll(expected));
 		
 		result = idx.lookup(4);
-		expected = Arrays.asList(2);
+		expected = Arrays.asList(2L);
 		assertTrue(result.size() == 1 && result.containsAll(expected));
 		
 		result = idx.lookup(6);
 		assertTrue(result.size() == 0);
 	}
 	
+	@Test
+	void testLookupRange() {
+		List<Long> result = idx.lookupRange(2, 3);
+		assertEquals(Arrays.asList(1L,2L,3L,1L), result);
+		
+		result = idx.lookupRange(0, 10);
+		assertEquals(7, result.size());
+		assertEquals(Arrays.asList(2L), idx.lookupRange(4, 4));
+		assertTrue(idx.lookupRange(5, 10).isEmpty());
+		assertTrue(idx.lookupRange(3, 2).isEmpty());
+	}
+	
+	@Test
+	void testIterator() {
+		List<Long> result = new ArrayList<>();
+		idx.iterator(false).forEachRemaining(result::add);
+		assertEquals(Arrays.asList(1L,2L,1L,2L,3L,1L,2L), result);
+		
+		result.clear();
+		idx.iterator(true).forEachRemaining(result::add);
+		assertEquals(Arrays.asList(2L,1L,3L,2L,1L,2L,1L), result);
+	}
+	
 	@Test
 	void testDelete() {
 		idx.delete(2, 1);
@@ -62,15 +86,15 @@ class OrdIndexTest {
 		
 		idx.delete(2, 2);
 		idx.delete(2, 3);
-		List<Integer> result = idx.lookup(2);
+		List<Long> result = idx.lookup(2);
 		assertTrue(result.size() == 0);
 	}
 	 
 	@Test
 	void testDeleteLookup() {
 		idx.insert(2, 1);
-		List<Integer> result = idx.lookup(2);
-		List<Integer> expected = Arrays.asList(1,2,3);
+		List<Long> result = idx.lookup(2);
+		List<Long> expected = Arrays.asList(1L,2L,3L);
 		assertTrue(result.size() == 3 && result.containsAll(expected));
 		
 		idx.delete(2, 1);
@@ -79,7 +103,7 @@ class OrdIndexTest {
 
 		idx.delete(2, 1);
 		result = idx.lookup(2);
-		expected = Arrays.asList(2,3);
+		expected = Arrays.asList(2L,3L);
 		assertTrue(result.size() == 2 && result.containsAll(expected));	}
 		
 }
@@ -0,0 +1,133 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import disk_store.Field;
+import disk_store.HeapDB;
+import disk_store.IntField;
+import disk_store.IntType;
+import disk_store.Query;
+import disk_store.Record;
+import disk_store.Schema;
+import disk_store.StringField;
+import disk_store.StringType;
+
+class QueryTest {
+	
+	static String dbFilename = "tempquery.txt";
+	static int numRecords = 2000;
+	
+	Schema schema;
+	StringType st;
+	HeapDB db;
+	
+	@BeforeEach
+	void init() {
+		// records (a, name, c) with name "n" + a % 50 and c = a % 20
+		new File(dbFilename).delete();
+		schema = new Schema("a", IntType.getInstance());
+		st = new StringType(10);
+		schema.add("name", st);
+		schema.add("c", IntType.getInstance());
+		db = new HeapDB(dbFilename, schema);
+		for (int a = 1; a <= numRecords; a++) {
+			Record rec = schema.blankRecord();
+			rec.set(0, new IntField(a));
+			rec.set(1, new StringField("n" + a % 50, st));
+			rec.set(2, new IntField(a % 20));
+			db.insert(rec);
+		}
+	}
+	
+	@AfterEach
+	void wrapup() {
+		db.close();
+		new File(dbFilename).delete();
+	}
+	
+	// return the number of records (a, name, c) with lo <= c <= hi
+	int countC(int lo, int hi) {
+		int n = 0;
+		for (int a = 1; a <= numRecords; a++) {
+			if (a % 20 >= lo && a % 20 <= hi) {
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	@Test
+	void testIntPredicates() {
+		assertEquals(countC(3, 3), new Query(db).whereEquals("c", 3).count());
+		assertEquals(countC(0, 4), new Query(db).whereLess("c", 5).count());
+		assertEquals(countC(16, 19), new Query(db).whereGreater("c", 15).count());
+		assertEquals(countC(5, 9), new Query(db).whereBetween("c", 5, 9).count());
+		assertEquals(countC(1, 1) + countC(7, 7), new Query(db).whereIn("c", 7, 1, 99).count());
+		assertEquals(10, new Query(db).whereLess("a", 11).count());
+		
+		// predicates are combined with and
+		assertEquals(1, new Query(db).whereEquals("c", 3).whereBetween("a", 1, 30).whereGreater("a", 3).count());
+		assertEquals(numRecords, new Query(db).count());
+	}
+	
+	@Test
+	void testEmptyRanges() {
+		assertEquals(0, new Query(db).whereLess("a", Integer.MIN_VALUE).count());
+		assertEquals(0, new Query(db).whereGreater("c", Integer.MAX_VALUE).count());
+		assertEquals(0, new Query(db).whereIn("a", new int[0]).count());
+		assertEquals(0, new Query(db).whereBetween("a", 10, 5).count());
+		assertEquals(numRecords, new Query(db).whereGreater("a", Integer.MIN_VALUE).count());
+		
+		// the same results when no zones are known
+		db.close();
+		db = HeapDB.open(dbFilename);
+		assertEquals(10, new Query(db).whereLess("a", 11).count());
+		assertEquals(0, new Query(db).whereIn("a", new int[0]).count());
+		assertEquals(10, new Query(db).whereLess("a", 11).count());
+	}
+	
+	@Test
+	void testStringPredicates() {
+		assertEquals(numRecords / 50, new Query(db).whereEquals("name", "n7").count());
+		assertEquals(0, new Query(db).whereEquals("name", "n").count());
+		assertEquals(2 * numRecords / 50, new Query(db).whereIn("name", "n7", "n8", "x").count());
+		// "n1" < "n10" < ... < "n19" < "n2"
+		assertEquals(11 * numRecords / 50, new Query(db).whereBetween("name", "n1", "n19").count());
+		assertEquals(numRecords / 50, new Query(db).whereLess("name", "n1").count());
+		assertEquals(4 * numRecords / 50, new Query(db).whereGreater("name", "n5").count());  // n6 to n9
+	}
+	
+	@Test
+	void testProjection() {
+		List<List<Field>> rows = new Query(db).select("c", "name").whereIn("a", 5, 17).list();
+		assertEquals(2, rows.size());
+		assertEquals(2, rows.get(0).size());
+		assertEquals(5, ((IntField) rows.get(0).get(0)).getValue());
+		assertEquals("n5", ((StringField) rows.get(0).get(1)).getValue());
+		assertEquals(17, ((IntField) rows.get(1).get(0)).getValue());
+		
+		// without a projection, rows have all the fields
+		rows = new Query(db).whereEquals("a", 42).list();
+		assertEquals(1, rows.size());
+		assertEquals(db.lookup(42), new Record(rows.get(0), schema));
+		
+		long sum = new Query(db).select("a").whereEquals("c", 0).stream()
+				.mapToLong(row -> ((IntField) row.get(0)).getValue()).sum();
+		assertEquals(20L * (100 * 101 / 2), sum);  // 20 + 40 + ... + 2000
+	}
+	
+	@Test
+	void testErrors() {
+		assertThrows(IllegalArgumentException.class, () -> new Query(db).whereEquals("name", 3));
+		assertThrows(IllegalArgumentException.class, () -> new Query(db).whereEquals("c", "3"));
+		assertThrows(IllegalArgumentException.class, () -> new Query(db).whereEquals("d", 3));
+		assertThrows(IllegalArgumentException.class, () -> new Query(db).select("a", "d"));
+	}
+}
@@ -0,0 +1,37 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import disk_store.RecordId;
+
+class RecordIdTest {
+	
+	@Test
+	void testPacking() {
+		long[] blockNums = {0, 1, 2, 12345, 1L << 40};
+		int[] slotNums = {0, 1, 255, 65535};
+		for (long blockNum : blockNums) {
+			for (int slotNum : slotNums) {
+				long rid = RecordId.of(blockNum, slotNum);
+				assertEquals(blockNum, RecordId.blockNum(rid));
+				assertEquals(slotNum, RecordId.slotNum(rid));
+			}
+		}
+		assertEquals("(7, 3)", RecordId.toString(RecordId.of(7, 3)));
+	}
+	
+	@Test
+	void testOrder() {
+		// record IDs are ordered by block, then by slot
+		assertTrue(RecordId.of(1, 65535) < RecordId.of(2, 0));
+		assertTrue(RecordId.of(2, 0) < RecordId.of(2, 1));
+	}
+	
+	@Test
+	void testRange() {
+		assertThrows(IllegalArgumentException.class, () -> RecordId.of(1, -1));
+		assertThrows(IllegalArgumentException.class, () -> RecordId.of(1, 65536));
+	}
+}
@@ -0,0 +1,139 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import disk_store.IntField;
+import disk_store.IntType;
+import disk_store.Record;
+import disk_store.Schema;
+import disk_store.StringField;
+import disk_store.StringType;
+import disk_store.ZoneMap;
+
+class ZoneMapTest {
+	
+	Schema schema;
+	StringType st;
+	ZoneMap zones;
+	
+	@BeforeEach
+	void init() {
+		schema = new Schema("a", IntType.getInstance());
+		st = new StringType(10);
+		schema.add("name", st);
+		schema.add("c", IntType.getInstance());
+		zones = new ZoneMap(schema);
+	}
+	
+	Record createRecord(int a, int c) {
+		return new Record(Arrays.asList(new IntField(a), new StringField("x", st), new IntField(c)), schema);
+	}
+	
+	@Test
+	void unknownZones() {
+		// a block with an unknown zone might hold anything
+		assertFalse(zones.isKnown(5));
+		assertTrue(zones.mightContain(5, 0, 1, 1));
+		zones.add(5, createRecord(1, 1));
+		assertFalse(zones.isKnown(5));
+		
+		// except for an empty range
+		assertFalse(zones.mightContain(5, 0, 2, 1));
+	}
+	
+	@Test
+	void widen() {
+		zones.clear(2);
+		assertTrue(zones.isKnown(2));
+		assertFalse(zones.mightContain(2, 0, Integer.MIN_VALUE, Integer.MAX_VALUE));
+		zones.add(2, createRecord(10, -3));
+		zones.add(2, createRecord(20, 7));
+		assertTrue(zones.mightContain(2, 0, 10, 10));
+		assertTrue(zones.mightContain(2, 0, 15, 15));
+		assertTrue(zones.mightContain(2, 0, 0, 10));
+		assertTrue(zones.mightContain(2, 0, 20, 30));
+		assertFalse(zones.mightContain(2, 0, 21, 30));
+		assertFalse(zones.mightContain(2, 0, 0, 9));
+		assertTrue(zones.mightContain(2, 2, -3, -3));
+		assertFalse(zones.mightContain(2, 2, 8, 100));
+	}
+	
+	@Test
+	void remove() {
+		zones.clear(3);
+		zones.add(3, createRecord(10, 0));
+		zones.add(3, createRecord(15, 0));
+		zones.add(3, createRecord(20, 0));
+		
+		// removing an inner value leaves the zone wide enough
+		zones.remove(3, createRecord(15, 5));
+		assertTrue(zones.isKnown(3));
+		
+		// removing an end value makes it unknown
+		zones.remove(3, createRecord(20, 5));
+		assertFalse(zones.isKnown(3));
+		zones.clear(3);
+		zones.add(3, createRecord(10, 0));
+		zones.remove(3, createRecord(11, 0));
+		assertFalse(zones.isKnown(3));
+		
+		zones.clear(4);
+		zones.forget(4);
+		assertFalse(zones.isKnown(4));
+	}
+	
+	@Test
+	void manyBlocks() {
+		for (int b = 0; b < 10000; b++) {
+			zones.clear(b);
+			zones.add(b, createRecord(100 * b, b % 3));
+			zones.add(b, createRecord(100 * b + 99, b % 3));
+		}
+		for (int b = 0; b < 10000; b++) {
+			assertTrue(zones.mightContain(b, 0, 100 * b + 50, 100 * b + 50));
+			assertFalse(zones.mightContain(b, 0, 100 * b + 100, 100 * b + 200));
+			assertEquals(b % 3 == 1, zones.mightContain(b, 2, 1, 1));
+		}
+	}
+	
+	@Test
+	void countMightContain() {
+		// the count agrees with mightContain block by block, as zones
+		// are set, widened and forgotten
+		Random rand = new Random(7);
+		for (int n = 0; n < 20000; n++) {
+			int b = rand.nextInt(1000);
+			switch (rand.nextInt(4)) {
+			case 0:
+				zones.clear(b);
+				break;
+			case 1:
+				zones.forget(b);
+				break;
+			default:
+				zones.add(b, createRecord(10 * b + rand.nextInt(50), rand.nextInt(1000)));
+			}
+			if (n % 100 == 0) {
+				int lo = rand.nextInt(11000) - 500;
+				int hi = lo + rand.nextInt(2000);
+				long first = rand.nextInt(600);
+				long last = first + rand.nextInt(600);
+				long expected = 0;
+				for (long blockNum = first; blockNum <= last; blockNum++) {
+					if (zones.mightContain(blockNum, 0, lo, hi)) {
+						expected++;
+					}
+				}
+				assertEquals(expected, zones.countMightContain(0, lo, hi, first, last));
+			}
+		}
+		assertEquals(0, zones.countMightContain(0, 5, 4, 0, 100));
+		assertEquals(2000, zones.countMightContain(2, 0, 0, 5000, 6999));  // unknown
+	}
+}